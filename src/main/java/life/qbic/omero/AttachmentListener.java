@@ -0,0 +1,49 @@
+package life.qbic.omero;
+
+/**
+ * Receives progress notifications while files are attached with {@link
+ * BasicOMEROClient#attachFiles(java.util.List, int, AttachmentListener)}.
+ *
+ * <p>Notifications are sent from the upload threads, implementations must be thread safe. All
+ * methods do nothing by default.</p>
+ *
+ * @since 1.4.0
+ */
+public interface AttachmentListener {
+
+  /**
+   * Called after a chunk of a file was written to the server.
+   *
+   * @param attachment the attachment being uploaded
+   * @param transferredBytes the number of bytes of the file written so far
+   */
+  default void onFileProgress(FileAttachment attachment, long transferredBytes) {
+  }
+
+  /**
+   * Called after a chunk of any file was written to the server.
+   *
+   * @param transferredBytes the number of bytes of all files written so far
+   * @param totalBytes the size of all files to be attached
+   */
+  default void onTotalProgress(long transferredBytes, long totalBytes) {
+  }
+
+  /**
+   * Called once a file was uploaded and attached.
+   *
+   * @param attachment the attached file
+   * @param annotationId the omero identifier of the created file annotation
+   */
+  default void onFileCompleted(FileAttachment attachment, long annotationId) {
+  }
+
+  /**
+   * Called if a file could not be uploaded or attached.
+   *
+   * @param attachment the attachment that failed
+   * @param exception the cause of the failure
+   */
+  default void onFileFailed(FileAttachment attachment, Exception exception) {
+  }
+}
@@ -3,26 +3,45 @@ package life.qbic.omero;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.imageio.ImageIO;
+import life.qbic.omero.ShapeBatch.ShapeType;
+import omero.RDouble;
+import omero.RString;
 import omero.ServerError;
-import omero.api.ExporterPrx;
-import omero.api.RawFileStorePrx;
+import omero.api.IAdminPrx;
+import omero.api.IQueryPrx;
+import omero.api.IUpdatePrx;
 import omero.api.RenderingEnginePrx;
 import omero.api.ThumbnailStorePrx;
 import omero.gateway.Gateway;
@@ -35,6 +54,7 @@ import omero.gateway.facility.DataManagerFacility;
 import omero.gateway.facility.MetadataFacility;
 import omero.gateway.model.AnnotationData;
 import omero.gateway.model.ChannelData;
+import omero.gateway.model.DataObject;
 import omero.gateway.model.DatasetData;
 import omero.gateway.model.ExperimenterData;
 import omero.gateway.model.FileAnnotationData;
@@ -42,25 +62,46 @@ import omero.gateway.model.ImageData;
 import omero.gateway.model.MapAnnotationData;
 import omero.gateway.model.PixelsData;
 import omero.gateway.model.ProjectData;
+import omero.log.Logger;
 import omero.log.SimpleLogger;
+import omero.model.Channel;
 import omero.model.ChecksumAlgorithm;
 import omero.model.ChecksumAlgorithmI;
 import omero.model.Dataset;
+import omero.model.DatasetAnnotationLink;
+import omero.model.DatasetAnnotationLinkI;
 import omero.model.DatasetI;
+import omero.model.Ellipse;
 import omero.model.FileAnnotation;
 import omero.model.FileAnnotationI;
+import omero.model.Fileset;
+import omero.model.FilesetEntry;
 import omero.model.IObject;
+import omero.model.Image;
 import omero.model.ImageAnnotationLink;
 import omero.model.ImageAnnotationLinkI;
+import omero.model.ImageI;
+import omero.model.Line;
+import omero.model.Mask;
 import omero.model.NamedValue;
 import omero.model.OriginalFile;
 import omero.model.OriginalFileI;
+import omero.model.Pixels;
+import omero.model.Point;
+import omero.model.Polygon;
+import omero.model.Polyline;
 import omero.model.Project;
+import omero.model.ProjectAnnotationLink;
+import omero.model.ProjectAnnotationLinkI;
 import omero.model.ProjectDatasetLink;
 import omero.model.ProjectDatasetLinkI;
 import omero.model.ProjectI;
+import omero.model.Rectangle;
+import omero.model.Roi;
+import omero.model.Shape;
 import omero.model.enums.ChecksumAlgorithmSHA1160;
 import omero.romio.PlaneDef;
+import omero.sys.ParametersI;
 import omero.gateway.model.GroupData;
 
 /////////////////////////////////////////////////////
@@ -74,21 +115,98 @@ import omero.gateway.model.GroupData;
  */
 public class BasicOMEROClient {
 
+  // maximum number of identifiers passed to a single query
+  private static final int QUERY_BATCH_SIZE = 500;
+  // maximum number of objects saved with a single request
+  private static final int SAVE_BATCH_SIZE = 500;
+  // number of files read ahead in parallel while writing zip bundles
+  private static final int ZIP_READ_AHEAD = 4;
+  private static final int ZIP_CHUNK_SIZE = 1024 * 1024;
+  // bytes read ahead of the archive at most per zip bundle, limits the chunk size as well
+  private static final int ZIP_BUFFERED_BYTES = 16 * 1024 * 1024;
+  // number of times a transfer is resumed before it fails
+  private static final int MAX_TRANSFER_ATTEMPTS = 5;
+  // room left for the Ice protocol overhead when chunks are sized up to the message size limit
+  private static final int MESSAGE_OVERHEAD = 64 * 1024;
+  // Ice.MessageSizeMax in KB if the property is not set, as defined by Ice
+  private static final int ICE_MESSAGE_SIZE_MAX_DEFAULT = 1024;
+  // edge length of thumbnails in pixels
+  private static final int THUMBNAIL_SIZE = 96;
+  private static final int THUMBNAIL_CACHE_SIZE = 2000;
+  // how long cached thumbnails are served before they are loaded again
+  private static final long THUMBNAIL_CACHE_TTL_MILLIS = 10 * 60 * 1000L;
+  private static final long THUMBNAIL_POLL_INTERVAL_MILLIS = 30_000L;
+  // how long created datasets are watched for new images to warm up
+  private static final long THUMBNAIL_WATCH_MILLIS = 60 * 60 * 1000L;
+  // number of histogram bins used for auto-contrast rendering
+  private static final int HISTOGRAM_BINS = 256;
+  private static final int CHANNEL_STATISTICS_CACHE_SIZE = 1000;
+  // number of most recent latencies kept per read operation
+  private static final int READ_LATENCY_WINDOW = 1000;
+  // number of threads running coalesced batch requests
+  private static final int COALESCING_THREADS = 4;
+  // minimum time between two background synchronizations of the metadata cache
+  private static final long METADATA_CACHE_SYNCHRONIZATION_INTERVAL_MILLIS = 60_000L;
+
   private final String hostname;
   private final int port;
   private final String username;
   private final String password;
   private final Gateway gateway;
   private final int serverId;
+  // reports problems of background work and skipped data, which do not fail the calling method
+  private final Logger logger = new SimpleLogger();
 
   private String userGroupName;
 
   private String sessionId;
   private String sessionUuid;
   private SecurityContext securityContext;
-
-  private HashMap<Long, String> projectMap;
-  private HashMap<Long, Set<DatasetData>> datasetMap;
+  // group ids of the user by lower case group name, resolved at login
+  private volatile Map<String, Long> groupIds = Collections.emptyMap();
+  private final Map<Long, SecurityContext> groupContexts = new ConcurrentHashMap<>();
+  // overrides the group of the session for calls made within inGroup
+  private final ThreadLocal<SecurityContext> groupContext = new ThreadLocal<>();
+
+  // datasets of the projects last loaded by loadProjects, by group id
+  private final Map<Long, Map<Long, Set<DatasetData>>> datasetMaps = new ConcurrentHashMap<>();
+
+  private final SearchIndex searchIndex = new SearchIndex();
+
+  private final ThumbnailCache thumbnailCache = new ThumbnailCache(THUMBNAIL_CACHE_SIZE,
+      THUMBNAIL_CACHE_TTL_MILLIS);
+  // channel statistics by pixels id, and by pixels id, plane and bin count for histograms
+  private final Map<String, List<ChannelStatistics>> channelStatistics =
+      Collections.synchronizedMap(new LinkedHashMap<String, List<ChannelStatistics>>(16, 0.75f,
+          true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<ChannelStatistics>> eldest) {
+          return size() > CHANNEL_STATISTICS_CACHE_SIZE;
+        }
+      });
+  private volatile ThumbnailWarmUpScheduler thumbnailWarmUp;
+  private volatile boolean warmUpCreatedDatasets;
+
+  private volatile Coalescing coalescing;
+
+  private final LatencyTracker readLatencies = new LatencyTracker(READ_LATENCY_WINDOW);
+  private volatile HedgedReader hedgedReader;
+
+  private final TransferMetrics transferMetrics = new TransferMetrics();
+  private volatile int minTransferChunkSize = 64 * 1024;
+  private volatile int maxTransferChunkSize = 16 * 1024 * 1024;
+  // Ice.MessageSizeMax of the session in bytes, read on connect
+  private volatile int messageSizeLimit = ICE_MESSAGE_SIZE_MAX_DEFAULT * 1024;
+  // message size limit in bytes set by the user, 0 if Ice.MessageSizeMax applies
+  private volatile int messageSizeLimitOverride = 0;
+
+  private volatile MetadataCache metadataCache;
+  // held while the metadata cache is synchronized, the cache is not closed in the meantime
+  private final Object metadataCacheSynchronization = new Object();
+  private final ExecutorService metadataCacheExecutor =
+      Executors.newSingleThreadExecutor(new DaemonThreadFactory("omero-metadata-cache"));
+  private final AtomicBoolean metadataCacheSynchronizing = new AtomicBoolean(false);
+  private volatile long lastMetadataCacheSynchronization;
 
   /**
    * Public constructor for BasicOMEROClient class.
@@ -100,7 +218,18 @@ public class BasicOMEROClient {
    * @param userGroupName the group name for the session, the "default" string is to indicate the use of the OMERO server's default group for the user. If the group name is not found, the default group is used.
    */
   public BasicOMEROClient(String username, String password, String hostname, int port, String userGroupName) {
+    this(new Gateway(new SimpleLogger()), username, password, hostname, port, userGroupName);
+  }
 
+  /**
+   * Creates a client using the given gateway, e.g. a gateway whose services are simulated.
+   *
+   * @param gateway the gateway the client connects and loads data through
+   * @see #BasicOMEROClient(String, String, String, int, String)
+   * @since 1.4.0
+   */
+  BasicOMEROClient(Gateway gateway, String username, String password, String hostname, int port,
+      String userGroupName) {
     this.username = username;
     this.password = password;
     this.hostname = hostname;
@@ -113,7 +242,7 @@ public class BasicOMEROClient {
     this.sessionUuid = null;
     this.securityContext = null;
 
-    this.gateway = new Gateway(new SimpleLogger());
+    this.gateway = gateway;
   }
 
   /**
@@ -159,18 +288,22 @@ public class BasicOMEROClient {
 
       long userGroupID = user.getGroupId();
 
+      Map<String, Long> userGroupIds = new HashMap<>();
+      for (GroupData userGroup : user.getGroups()) {
+        userGroupIds.putIfAbsent(userGroup.getName().toLowerCase(), userGroup.getGroupId());
+      }
+      this.groupIds = Collections.unmodifiableMap(userGroupIds);
+
       if(!group.equalsIgnoreCase("default")){
-        for (GroupData userGroup : user.getGroups()) {
-          if(userGroup.getName().equalsIgnoreCase(group)){
-            userGroupID = userGroup.getGroupId();
-            break;
-          }
-        }
+        userGroupID = userGroupIds.getOrDefault(group.toLowerCase(), userGroupID);
       }
 
-      this.securityContext = new SecurityContext(userGroupID);
+      this.securityContext = groupContexts
+          .computeIfAbsent(userGroupID, SecurityContext::new);
       this.sessionId = gateway.getSessionId(user);
-      this.sessionUuid = gateway.getAdminService(securityContext).getEventContext().sessionUuid;
+      IAdminPrx adminService = gateway.getAdminService(securityContext);
+      this.sessionUuid = adminService.getEventContext().sessionUuid;
+      this.messageSizeLimit = messageSizeLimitOf(adminService);
     } catch (DSOutOfServiceException dsOutOfServiceException) {
       throw new RuntimeException(
               "Error while accessing omero service: broken connection, expired session or not logged in",
@@ -215,6 +348,203 @@ public class BasicOMEROClient {
     this.connect(this.username, this.password, this.hostname, this.port, this.userGroupName);
   }
 
+  /**
+   * @return the names of the groups the user is a member of, as resolved at login
+   * @since 1.4.0
+   */
+  public Set<String> getGroupNames() {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+    return this.groupIds.keySet();
+  }
+
+  /**
+   * Returns the security context of one of the groups of the user. Contexts are created once per
+   * group and share the session of this client, no additional login is needed.
+   *
+   * @param groupName the name of the group, case is ignored
+   * @return the security context of the group
+   * @throws IllegalArgumentException if the user is not a member of the group
+   * @since 1.4.0
+   */
+  public SecurityContext getSecurityContext(String groupName) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+    Long groupId = this.groupIds.get(groupName.toLowerCase());
+    if (groupId == null) {
+      throw new IllegalArgumentException(
+          "User " + username + " is not a member of group " + groupName);
+    }
+    return groupContexts.computeIfAbsent(groupId, SecurityContext::new);
+  }
+
+  /**
+   * Runs calls of this client in the given group instead of the group of the session. Other
+   * threads are not affected, so calls for different groups can run concurrently on the same
+   * session.
+   *
+   * <pre>{@code
+   * HashMap<Long, String> projects = client.inGroup("lab-a", client::loadProjects);
+   * }</pre>
+   *
+   * @param groupName the name of the group, case is ignored
+   * @param call the calls to run in the group
+   * @param <T> the type of the result
+   * @return the result of the call
+   * @throws IllegalArgumentException if the user is not a member of the group
+   * @see #getSecurityContext(String)
+   * @since 1.4.0
+   */
+  public <T> T inGroup(String groupName, Supplier<T> call) {
+    return inGroup(getSecurityContext(groupName), call);
+  }
+
+  /**
+   * Runs calls of this client with the given security context instead of the context of the
+   * session. Other threads are not affected.
+   *
+   * @param context the security context the calls are made with
+   * @param call the calls to run with the context
+   * @param <T> the type of the result
+   * @return the result of the call
+   * @since 1.4.0
+   */
+  public <T> T inGroup(SecurityContext context, Supplier<T> call) {
+    Objects.requireNonNull(context, "context must not be null");
+    SecurityContext previous = groupContext.get();
+    groupContext.set(context);
+    try {
+      return call.get();
+    } finally {
+      if (previous == null) {
+        groupContext.remove();
+      } else {
+        groupContext.set(previous);
+      }
+    }
+  }
+
+  /**
+   * @return the security context of the current call, the context of the session unless the
+   *     call is made within {@link #inGroup(SecurityContext, Supplier)}
+   */
+  private SecurityContext context() {
+    SecurityContext context = groupContext.get();
+    return context != null ? context : this.securityContext;
+  }
+
+  /**
+   * Enables a persistent local cache of the project, dataset and image hierarchy. Once the cache
+   * holds data, {@link #loadProjects()} and {@link #getImages(long)} answer from the cache and
+   * the cache is synchronized with the server in the background, detecting stale entries by their
+   * update timestamps. Every read from the cache schedules such a synchronization, at most one per
+   * minute. Projects and datasets created by this client are added to the cache right away.
+   *
+   * @param cacheFile the file the cache is stored in, created if it does not exist
+   * @throws IllegalArgumentException if the file exists and is not a metadata cache
+   * @see MetadataCache
+   * @since 1.4.0
+   */
+  public void enableMetadataCache(File cacheFile) {
+    disableMetadataCache();
+    this.metadataCache = new MetadataCache(cacheFile);
+    this.lastMetadataCacheSynchronization = 0L;
+  }
+
+  /**
+   * Disables and closes the persistent metadata cache, if enabled. The cache file is kept. A
+   * running synchronization of the cache is completed first.
+   *
+   * @since 1.4.0
+   */
+  public void disableMetadataCache() {
+    MetadataCache cache = this.metadataCache;
+    this.metadataCache = null;
+    if (cache != null) {
+      synchronized (metadataCacheSynchronization) {
+        cache.close();
+      }
+    }
+  }
+
+  /**
+   * Synchronizes the persistent metadata cache with the server. Entries that changed on the server
+   * are reloaded, entries that were deleted are removed.
+   *
+   * @throws IllegalStateException if the metadata cache is not enabled
+   * @see #enableMetadataCache(File)
+   * @since 1.4.0
+   */
+  public void synchronizeMetadataCache() {
+    MetadataCache cache = this.metadataCache;
+    if (cache == null) {
+      throw new IllegalStateException("The metadata cache is not enabled.");
+    }
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    try {
+      synchronized (metadataCacheSynchronization) {
+        if (cache.isClosed()) {
+          return;
+        }
+        new MetadataCacheSynchronizer(cache, searchIndex::remove)
+            .synchronize(gateway.getQueryService(securityContext));
+        cache.flush();
+      }
+      this.lastMetadataCacheSynchronization = System.currentTimeMillis();
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ServerError serverError) {
+      throw new RuntimeException("Omero store interaction failed.", serverError);
+    }
+  }
+
+  /**
+   * @return the metadata cache if it is enabled and the context is in the group of the session,
+   *     the cache holds the hierarchy of that group only
+   */
+  private MetadataCache metadataCacheOf(SecurityContext context) {
+    MetadataCache cache = this.metadataCache;
+    SecurityContext sessionContext = this.securityContext;
+    if (cache == null || sessionContext == null
+        || context.getGroupID() != sessionContext.getGroupID()) {
+      return null;
+    }
+    return cache;
+  }
+
+  /**
+   * Synchronizes the metadata cache in the background, unless a synchronization is running or
+   * happened recently
+   */
+  private void scheduleMetadataCacheSynchronization() {
+    if (System.currentTimeMillis() - lastMetadataCacheSynchronization
+        < METADATA_CACHE_SYNCHRONIZATION_INTERVAL_MILLIS) {
+      return;
+    }
+    if (!metadataCacheSynchronizing.compareAndSet(false, true)) {
+      return;
+    }
+    metadataCacheExecutor.execute(() -> {
+      try {
+        synchronizeMetadataCache();
+      } catch (RuntimeException synchronizationFailed) {
+        // the cached data stays in use, the next access schedules another attempt
+      } finally {
+        metadataCacheSynchronizing.set(false);
+      }
+    });
+  }
+
   /**
    * Returns any file annotations (information about attachments) of a given image
    *
@@ -232,7 +562,57 @@ public class BasicOMEROClient {
    * @return A list of MapAnnotationData objects
    */
   public List<MapAnnotationData> fetchMapAnnotationDataForImage(long imageID) {
-    return loadAnnotationsForImage(imageID, MapAnnotationData.class);
+    List<MapAnnotationData> mapAnnotations =
+        loadAnnotationsForImage(imageID, MapAnnotationData.class);
+    indexMapAnnotations(Kind.IMAGE, imageID, mapAnnotations);
+    return mapAnnotations;
+  }
+
+  /**
+   * Searches the projects, datasets and images known to this client by their names, descriptions
+   * and map annotations. Every token of the query has to be a prefix of a word of the object.
+   * Only objects this client has loaded or created before are found.
+   *
+   * @param query the search query
+   * @return the matching objects
+   * @see SearchIndex
+   * @since 1.4.0
+   */
+  public List<SearchIndex.Hit> search(String query) {
+    return searchIndex.search(query);
+  }
+
+  /**
+   * @return the index of all projects, datasets and images loaded or created by this client
+   * @since 1.4.0
+   */
+  public SearchIndex getSearchIndex() {
+    return searchIndex;
+  }
+
+  private void indexNameAndDescription(Kind kind, long id, String name, String description) {
+    searchIndex.index(kind, id, SearchIndex.NAME, name);
+    searchIndex.index(kind, id, SearchIndex.DESCRIPTION, description);
+  }
+
+  /**
+   * Replaces the indexed annotations of an object with the given map annotations, which must be
+   * all map annotations of the object
+   */
+  private void indexMapAnnotations(Kind kind, long id, List<MapAnnotationData> mapAnnotations) {
+    StringBuilder text = new StringBuilder();
+    for (MapAnnotationData mapAnnotation : mapAnnotations) {
+      Object content = mapAnnotation.getContent();
+      if (content instanceof List) {
+        for (Object entry : (List<?>) content) {
+          if (entry instanceof NamedValue) {
+            NamedValue namedValue = (NamedValue) entry;
+            text.append(namedValue.name).append(' ').append(namedValue.value).append(' ');
+          }
+        }
+      }
+    }
+    searchIndex.index(kind, id, SearchIndex.ANNOTATIONS, text.toString());
   }
 
   /**
@@ -250,26 +630,28 @@ public class BasicOMEROClient {
       connect();
     }
 
-    try {
-      BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
-      image = browse.getImage(this.securityContext, imageID);
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+    Coalescing coalescing = coalescingOfContext();
+    if (coalescing != null) {
+      RequestCoalescer<Long, List<AnnotationData>> coalescer =
+          type == FileAnnotationData.class ? coalescing.fileAnnotations
+              : type == MapAnnotationData.class ? coalescing.mapAnnotations : null;
+      if (coalescer != null) {
+        annotations = await(coalescer.request(imageID));
+        return (annotations != null) ? annotations.stream()
+            .map(annotationData -> (T) annotationData).collect(Collectors.toList())
+            : new ArrayList<T>();
+      }
     }
 
+    image = loadImage(imageID);
+
 
     List<Class<? extends AnnotationData>> types = new ArrayList<>();
     types.add(type);
 
     try {
       MetadataFacility metadata = gateway.getFacility(MetadataFacility.class);
-      annotations = metadata.getAnnotations(securityContext, image, types, null);
+      annotations = metadata.getAnnotations(context(), image, types, null);
     } catch (DSOutOfServiceException dsOutOfServiceException) {
       throw new RuntimeException(
           "Error while accessing omero service: broken connection, expired session or not logged in",
@@ -306,13 +688,7 @@ public class BasicOMEROClient {
     RenderingEnginePrx proxy;
     ByteArrayInputStream stream;
     try {
-      proxy = gateway.getRenderingService(securityContext, pixelsId);
-      proxy.lookupPixels(pixelsId);
-      if (!(proxy.lookupRenderingDef(pixelsId))) {
-        proxy.resetDefaultSettings(true);
-        proxy.lookupRenderingDef(pixelsId);
-      }
-      proxy.load();
+      proxy = openRenderingEngine(pixelsId);
       // Now can interact with the rendering engine.
       proxy.setActive(0, Boolean.FALSE);
       PlaneDef pDef = new PlaneDef();
@@ -347,12 +723,230 @@ public class BasicOMEROClient {
     return res;
   }
 
+  /**
+   * Renders a plane of an image with channel windows adapted to the pixel values of the plane.
+   * The windows are chosen from histograms computed by the rendering engine that renders the
+   * plane, or taken from the cache of channel statistics, so no plane is transferred for them.
+   *
+   * @param image imageData object from Omero
+   * @param zPlane selected slide of the vertical axis of a 3D image, else 0
+   * @param timePoint selected time point of a time series, else 0
+   * @param saturation the fraction of pixels of each channel rendered at the lowest and at the
+   *     highest intensity, e.g. 0.001
+   * @return a {@link BufferedImage} for the given {@link ImageData}
+   * @see ChannelStatistics#getQuantile(double)
+   * @since 1.4.0
+   */
+  public BufferedImage renderImage(ImageData image, int zPlane, int timePoint,
+      double saturation) {
+    if (saturation < 0 || saturation >= 0.5) {
+      throw new IllegalArgumentException("Invalid saturation " + saturation);
+    }
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    long pixelsId = image.getDefaultPixels().getId();
+    RenderingEnginePrx proxy = null;
+    try {
+      proxy = openRenderingEngine(pixelsId);
+      PlaneDef pDef = new PlaneDef();
+      pDef.z = zPlane;
+      pDef.t = timePoint;
+      pDef.slice = omero.romio.XY.value;
+
+      String key = histogramKey(pixelsId, zPlane, timePoint, HISTOGRAM_BINS);
+      List<ChannelStatistics> statistics = channelStatistics.get(key);
+      if (statistics == null) {
+        statistics = loadHistograms(proxy, image, pDef, HISTOGRAM_BINS);
+        channelStatistics.put(key, statistics);
+      }
+      for (ChannelStatistics channel : statistics) {
+        proxy.setChannelWindow(channel.getChannelIndex(), channel.getQuantile(saturation),
+            channel.getQuantile(1 - saturation));
+      }
+
+      try (ByteArrayInputStream stream = new ByteArrayInputStream(
+          proxy.renderCompressed(pDef))) {
+        return ImageIO.read(stream);
+      }
+    } catch (ServerError serverError) {
+      throw new RuntimeException("Omero store interaction failed.", serverError);
+    } catch (IOException ioException) {
+      throw new RuntimeException("Image data could now be read.", ioException);
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } finally {
+      if (proxy != null) {
+        try {
+          proxy.close();
+        } catch (ServerError serverError) {
+          // the image was rendered already, the proxy is discarded anyway
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the stored pixel statistics of the channels of an image. The statistics are loaded
+   * with the channel metadata and cached per pixels id.
+   *
+   * @param imageId the omero identifier of the image
+   * @return the statistics of every channel in channel order, without histograms
+   * @since 1.4.0
+   */
+  public List<ChannelStatistics> getChannelStatistics(long imageId) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    try {
+      return storedChannelStatistics(loadImage(imageId));
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ServerError serverError) {
+      throw new RuntimeException("Omero store interaction failed.", serverError);
+    }
+  }
+
+  /**
+   * Returns the pixel statistics of the channels of an image together with histograms of one
+   * plane. The histograms are computed by the rendering engine on the server from the raw pixel
+   * values, only the bin counts are transferred. Results are cached per pixels id and plane.
+   *
+   * @param imageId the omero identifier of the image
+   * @param zPlane selected slide of the vertical axis of a 3D image, else 0
+   * @param timePoint selected time point of a time series, else 0
+   * @param binCount the number of histogram bins between the global minimum and maximum
+   * @return the statistics of every channel in channel order
+   * @since 1.4.0
+   */
+  public List<ChannelStatistics> getChannelStatistics(long imageId, int zPlane, int timePoint,
+      int binCount) {
+    if (binCount <= 0) {
+      throw new IllegalArgumentException("Invalid bin count " + binCount);
+    }
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    ImageData image = loadImage(imageId);
+    long pixelsId = image.getDefaultPixels().getId();
+    String key = histogramKey(pixelsId, zPlane, timePoint, binCount);
+    List<ChannelStatistics> cached = channelStatistics.get(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    RenderingEnginePrx proxy = null;
+    try {
+      proxy = openRenderingEngine(pixelsId);
+      PlaneDef pDef = new PlaneDef();
+      pDef.z = zPlane;
+      pDef.t = timePoint;
+      pDef.slice = omero.romio.XY.value;
+      List<ChannelStatistics> statistics = loadHistograms(proxy, image, pDef, binCount);
+      channelStatistics.put(key, statistics);
+      return statistics;
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ServerError serverError) {
+      throw new RuntimeException("Omero store interaction failed.", serverError);
+    } finally {
+      if (proxy != null) {
+        try {
+          proxy.close();
+        } catch (ServerError serverError) {
+          // the histograms were loaded already, the proxy is discarded anyway
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens a rendering engine for the pixels, creating default rendering settings if necessary
+   */
+  private RenderingEnginePrx openRenderingEngine(long pixelsId)
+      throws DSOutOfServiceException, ServerError {
+    RenderingEnginePrx proxy = gateway.getRenderingService(context(), pixelsId);
+    proxy.lookupPixels(pixelsId);
+    if (!(proxy.lookupRenderingDef(pixelsId))) {
+      proxy.resetDefaultSettings(true);
+      proxy.lookupRenderingDef(pixelsId);
+    }
+    proxy.load();
+    return proxy;
+  }
+
+  /**
+   * @return the stored statistics of the channels of the image, from the cache if present
+   */
+  private List<ChannelStatistics> storedChannelStatistics(ImageData image)
+      throws DSOutOfServiceException, ServerError {
+    long pixelsId = image.getDefaultPixels().getId();
+    String key = String.valueOf(pixelsId);
+    List<ChannelStatistics> cached = channelStatistics.get(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    List<ChannelData> channels = loadChannelData(Collections.singletonList(image))
+        .getOrDefault(pixelsId, Collections.emptyList());
+    List<ChannelStatistics> statistics = new ArrayList<>(channels.size());
+    for (ChannelData channel : channels) {
+      statistics.add(new ChannelStatistics(channel.getIndex(), channel.getName(),
+          channel.getGlobalMin(), channel.getGlobalMax(), new int[0]));
+    }
+    statistics = Collections.unmodifiableList(statistics);
+    channelStatistics.put(key, statistics);
+    return statistics;
+  }
+
+  /**
+   * Computes histograms of all channels of a plane with the given rendering engine
+   */
+  private List<ChannelStatistics> loadHistograms(RenderingEnginePrx proxy, ImageData image,
+      PlaneDef plane, int binCount) throws DSOutOfServiceException, ServerError {
+    List<ChannelStatistics> stored = storedChannelStatistics(image);
+    int[] channels = new int[stored.size()];
+    for (int i = 0; i < channels.length; i++) {
+      channels[i] = stored.get(i).getChannelIndex();
+    }
+    // the bins span the global range of each channel, which the stored statistics describe
+    Map<Integer, int[]> histograms = proxy.getHistogram(channels, binCount, true, plane);
+
+    List<ChannelStatistics> statistics = new ArrayList<>(stored.size());
+    for (ChannelStatistics channel : stored) {
+      int[] histogram = histograms.get(channel.getChannelIndex());
+      statistics.add(histogram != null ? channel.withHistogram(histogram) : channel);
+    }
+    return Collections.unmodifiableList(statistics);
+  }
+
+  private static String histogramKey(long pixelsId, int zPlane, int timePoint, int binCount) {
+    return pixelsId + "/" + zPlane + "/" + timePoint + "/" + binCount;
+  }
+
   /**
    * This method closes the current connection and invalidates the corresponding OMERO session.
    * 
    * @see Gateway#disconnect()
    */
   public void disconnect() {
+    HedgedReader reader = this.hedgedReader;
+    if (reader != null) {
+      // the hedging gateways joined the session that is closed now
+      reader.closeSessions();
+    }
     this.gateway.disconnect();
     this.sessionId = null;
     this.sessionUuid = null;
@@ -373,24 +967,13 @@ public class BasicOMEROClient {
     }
 
     String downloadLinkAddress;
-    try {
-      BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
-      ImageData image = browse.getImage(this.securityContext, imageID);
-      if (image.getFormat() != null) {
-        downloadLinkAddress = "https://" + hostname + "/webgateway/archived_files/download/"
-            + imageID + "?server=" + serverId + "&bsession=" + sessionUuid;
-      } else {
-        throw new IllegalArgumentException(
-            "No image format given. Image is not available for download.");
-      }
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+    ImageData image = loadImage(imageID);
+    if (image.getFormat() != null) {
+      downloadLinkAddress = "https://" + hostname + "/webgateway/archived_files/download/"
+          + imageID + "?server=" + serverId + "&bsession=" + sessionUuid;
+    } else {
+      throw new IllegalArgumentException(
+          "No image format given. Image is not available for download.");
     }
     return downloadLinkAddress;
   }
@@ -412,33 +995,25 @@ public class BasicOMEROClient {
 
     final String omeTiffExtension = ".ome.tiff";
     final String omeTiffFormat = "OMETiff";
-    try {
-      BrowseFacility browseFacility = gateway.getFacility(BrowseFacility.class);
-      ImageData imageData = browseFacility.getImage(securityContext, imageId);
+    ImageData imageData = loadImage(imageId);
 
-      if (imageData.getFormat() != null) {
-        if (imageData.getFormat().equals(omeTiffFormat)) {
-          return getImageDownloadLink(imageId);
-        }
+    if (imageData.getFormat() != null) {
+      if (imageData.getFormat().equals(omeTiffFormat)) {
+        return getImageDownloadLink(imageId);
       }
+    }
 
-      Long annotationId = findFileAnnotation(imageId, omeTiffFormat, omeTiffExtension);
-      if (annotationId == null) {
-        File omeTiffFile = generateOmeTiff(imageId);
+    Long annotationId = findFileAnnotation(imageId, omeTiffFormat, omeTiffExtension);
+    if (annotationId == null) {
+      File omeTiffFile = generateOmeTiff(imageId);
+      try {
         annotationId = attachFileAnnotation(imageId, omeTiffFile);
+      } finally {
+        omeTiffFile.delete();
       }
-      return getAnnotationFileDownloadLink(annotationId);
-
-    } catch (DSOutOfServiceException dsOutOfServiceException) {
-      throw new RuntimeException(
-          "Error while accessing omero service: broken connection, expired session or not logged in",
-          dsOutOfServiceException);
-    } catch (ExecutionException executionException) {
-      throw new RuntimeException("Task aborted unexpectedly.", executionException);
-    } catch (DSAccessException dsAccessException) {
-      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
-    }
-  }
+    }
+    return getAnnotationFileDownloadLink(annotationId);
+  }
 
   /**
    * This method searches for file annotations with the given file format and uses file extension as
@@ -469,7 +1044,7 @@ public class BasicOMEROClient {
    * Generate the ome.tiff file from a given image id
    *
    * @param imageId to define the image for which the ome.tiff should be generated
-   * @return the generate ome.tiff as a file
+   * @return the generate ome.tiff as a temporary file, to be deleted by the caller
    */
   private File generateOmeTiff(long imageId) {
     if (!this.isConnected()) {
@@ -478,36 +1053,21 @@ public class BasicOMEROClient {
     final int BUFFER_SIZE = 1024 * 1024;
 
     File generatedTiff = null;
-
+    boolean exported = false;
     try {
       generatedTiff = File.createTempFile("generated_" + imageId + "_", ".ome.tiff");
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-
-    try {
-      ExporterPrx exporterService = gateway.getExporterService(securityContext);
-      exporterService.addImage(imageId);
-      long fileLength = exporterService.generateTiff();
-
-      FileOutputStream fileOutputStream = new FileOutputStream(generatedTiff);
-
-      int bytesRead = 0;
-      while (bytesRead < fileLength) {
-        byte[] currentImageSlice = exporterService.read(bytesRead, BUFFER_SIZE);
-        fileOutputStream.write(currentImageSlice);
-        bytesRead += currentImageSlice.length;
-      }
-
-      fileOutputStream.close();
-      exporterService.close();
-
-    } catch (ServerError | DSOutOfServiceException | FileNotFoundException exception) {
-      throw new RuntimeException("Omero could not create the ome tiff for image " + imageId,
-          exception);
+      SecurityContext context = context();
+      ResumableTransfer.export(() -> gateway.getExporterService(context), imageId,
+          generatedTiff, newChunkSizeController(TransferMetrics.EXPORT, BUFFER_SIZE),
+          MAX_TRANSFER_ATTEMPTS);
+      exported = true;
     } catch (IOException ioException) {
-      throw new RuntimeException("Could not write ome.tiff to temporary file for image " + imageId,
+      throw new RuntimeException("Omero could not create the ome tiff for image " + imageId,
           ioException);
+    } finally {
+      if (!exported && generatedTiff != null) {
+        generatedTiff.delete();
+      }
     }
     return generatedTiff;
   }
@@ -521,7 +1081,157 @@ public class BasicOMEROClient {
    * @return the annotation ID for the attached annotation
    */
   private long attachFileAnnotation(long imageId, File file) {
+    FileAttachment attachment = new FileAttachment(Kind.IMAGE, imageId, file, "OMETiff");
+    List<Exception> failures = new ArrayList<>();
+    Map<FileAttachment, Long> annotationIds =
+        attachFiles(Collections.singletonList(attachment), 1, new AttachmentListener() {
+          @Override
+          public void onFileFailed(FileAttachment failed, Exception exception) {
+            failures.add(exception);
+          }
+        });
+    if (!failures.isEmpty()) {
+      throw new RuntimeException("Could not attach " + file.getName() + " to image " + imageId,
+          failures.get(0));
+    }
+    return annotationIds.get(attachment);
+  }
+
+  /**
+   * Attaches many files as file annotations. The files are uploaded in parallel, each upload
+   * using its own RawFileStore. The original files, file annotations and annotation links are
+   * saved with batched requests.
+   *
+   * <p>The upload of every file succeeds or fails on its own. Failed attachments are reported to
+   * the listener and missing in the returned map. The original files of failed attachments are
+   * deleted from the server again.</p>
+   *
+   * @param attachments the files to attach and the objects to attach them to
+   * @param concurrency the maximum number of files uploaded at the same time
+   * @param listener notified about the progress of the uploads, may be null
+   * @return the omero identifiers of the created file annotations by attachment
+   * @since 1.4.0
+   */
+  public Map<FileAttachment, Long> attachFiles(List<FileAttachment> attachments, int concurrency,
+      AttachmentListener listener) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    AttachmentListener progress = listener != null ? listener : new AttachmentListener() {
+    };
+    Map<FileAttachment, Long> annotationIds = new LinkedHashMap<>();
+    if (attachments.isEmpty()) {
+      return annotationIds;
+    }
+
+    long totalBytes = 0;
+    List<IObject> originalFiles = new ArrayList<>(attachments.size());
+    for (FileAttachment attachment : attachments) {
+      totalBytes += attachment.getFile().length();
+      originalFiles.add(newOriginalFile(attachment.getFile(), attachment.getMimetype()));
+    }
+    final long allBytes = totalBytes;
+    AtomicLong allTransferredBytes = new AtomicLong();
+
+    ExecutorService uploads = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(concurrency, attachments.size())),
+        new DaemonThreadFactory("omero-upload"));
+    IUpdatePrx update = null;
+    // saved original files that are not linked to a file annotation (yet)
+    List<IObject> unlinkedFiles = new ArrayList<>();
+    try {
+      SecurityContext context = context();
+      update = gateway.getUpdateService(context);
+      originalFiles = saveInBatches(update, originalFiles);
+      unlinkedFiles.addAll(originalFiles);
+
+      List<Future<OriginalFile>> uploaded = new ArrayList<>(attachments.size());
+      for (int i = 0; i < attachments.size(); i++) {
+        FileAttachment attachment = attachments.get(i);
+        OriginalFile originalFile = (OriginalFile) originalFiles.get(i);
+        uploaded.add(uploads.submit(() -> {
+          AtomicLong fileTransferredBytes = new AtomicLong();
+          return uploadFile(context, originalFile, attachment.getFile(), chunkLength -> {
+            progress.onFileProgress(attachment, fileTransferredBytes.addAndGet(chunkLength));
+            progress.onTotalProgress(allTransferredBytes.addAndGet(chunkLength), allBytes);
+          });
+        }));
+      }
+
+      List<FileAttachment> completed = new ArrayList<>();
+      List<IObject> failedFiles = new ArrayList<>();
+      List<IObject> links = new ArrayList<>();
+      for (int i = 0; i < attachments.size(); i++) {
+        FileAttachment attachment = attachments.get(i);
+        try {
+          FileAnnotation fileAnnotation = new FileAnnotationI();
+          fileAnnotation.setFile(uploaded.get(i).get());
+          fileAnnotation.setDescription(omero.rtypes.rstring("attached file annotation for "
+              + attachment.getTargetKind().name().toLowerCase() + " "
+              + attachment.getTargetId()));
+          links.add(newAnnotationLink(attachment, fileAnnotation));
+          completed.add(attachment);
+        } catch (ExecutionException executionException) {
+          failedFiles.add(originalFiles.get(i));
+          Throwable cause = executionException.getCause();
+          progress.onFileFailed(attachment,
+              cause instanceof Exception ? (Exception) cause : executionException);
+        }
+      }
+
+      try {
+        links = saveInBatches(update, links);
+      } catch (ServerError serverError) {
+        for (FileAttachment attachment : completed) {
+          progress.onFileFailed(attachment, serverError);
+        }
+        return annotationIds;
+      }
+      unlinkedFiles = failedFiles;
+      for (int i = 0; i < completed.size(); i++) {
+        long annotationId = linkedAnnotationId(links.get(i));
+        annotationIds.put(completed.get(i), annotationId);
+        progress.onFileCompleted(completed.get(i), annotationId);
+      }
+      return annotationIds;
+
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Attaching files was interrupted.", interruptedException);
+    } catch (ServerError serverError) {
+      throw new RuntimeException("Omero store interaction failed.", serverError);
+    } finally {
+      uploads.shutdownNow();
+      if (update != null) {
+        deleteOriginalFiles(update, unlinkedFiles);
+      }
+    }
+  }
+
+  /**
+   * Deletes saved original files that are not linked to a file annotation, e.g. because their
+   * upload failed, so they are not left behind on the server. Deletion is best effort.
+   */
+  private static void deleteOriginalFiles(IUpdatePrx update, List<IObject> originalFiles) {
+    for (IObject originalFile : originalFiles) {
+      try {
+        update.deleteObject(originalFile);
+      } catch (ServerError | RuntimeException deletionFailed) {
+        // the original file stays on the server without annotation
+      }
+    }
+  }
 
+  /**
+   * Creates an unsaved original file describing the given local file
+   */
+  private OriginalFile newOriginalFile(File file, String mimetype) {
     String fileName = file.getName();
     String absolutePath = file.getAbsolutePath();
     String folderPath = absolutePath.substring(0, absolutePath.length() - fileName.length());
@@ -534,55 +1244,272 @@ public class BasicOMEROClient {
     originalFile.setPath(omero.rtypes.rstring(folderPath));
     originalFile.setSize(omero.rtypes.rlong(file.length()));
     originalFile.setHasher(checksumAlgorithm);
-    originalFile.setMimetype(omero.rtypes.rstring("OMETiff"));
+    originalFile.setMimetype(omero.rtypes.rstring(mimetype));
+    return originalFile;
+  }
 
-    try {
-      DataManagerFacility dataManagerFacility = gateway.getFacility(DataManagerFacility.class);
-      originalFile =
-          (OriginalFile) dataManagerFacility.saveAndReturnObject(securityContext, originalFile);
-
-
-
-      long position = 0;
-      int readLength;
-      // chunk size of chunks written to the RawFileStore
-      final int BYTE_INCREMENT = 262144;
-
-      byte[] bytes = new byte[BYTE_INCREMENT];
-      ByteBuffer byteBuffer;
-      RawFileStorePrx rawFileStore = gateway.getRawFileService(securityContext);
-      try (FileInputStream fileInputStream = new FileInputStream(file)) {
-        rawFileStore.setFileId(originalFile.getId().getValue());
-        while ((readLength = fileInputStream.read(bytes)) > 0) {
-          rawFileStore.write(bytes, position, readLength);
-          position += readLength;
-          byteBuffer = ByteBuffer.wrap(bytes);
-          byteBuffer.limit(readLength);
-        }
-        originalFile = rawFileStore.save();
-      } finally {
-        rawFileStore.close();
-      }
+  /**
+   * Writes the content of a file to the RawFileStore of a saved original file. Failed chunks are
+   * retried from the last offset stored on the server and the upload is verified by its checksum.
+   *
+   * @param context the security context of the upload
+   * @param originalFile the saved original file
+   * @param file the local file to upload
+   * @param chunkWritten notified with the length of every chunk written
+   * @return the original file as returned by the RawFileStore after saving
+   */
+  private OriginalFile uploadFile(SecurityContext context, OriginalFile originalFile, File file,
+      IntConsumer chunkWritten) throws IOException {
+    // initial size of chunks written to the RawFileStore
+    final int BYTE_INCREMENT = 262144;
+
+    return ResumableTransfer.upload(() -> gateway.getRawFileService(context),
+        originalFile.getId().getValue(), file,
+        newChunkSizeController(TransferMetrics.UPLOAD, BYTE_INCREMENT), MAX_TRANSFER_ATTEMPTS,
+        chunkWritten);
+  }
+
+  /**
+   * Creates an unsaved link of the file annotation to the target of the attachment
+   */
+  private IObject newAnnotationLink(FileAttachment attachment, FileAnnotation fileAnnotation) {
+    switch (attachment.getTargetKind()) {
+      case PROJECT:
+        ProjectAnnotationLink projectLink = new ProjectAnnotationLinkI();
+        projectLink.setChild(fileAnnotation);
+        projectLink.setParent(new ProjectI(attachment.getTargetId(), false));
+        return projectLink;
+      case DATASET:
+        DatasetAnnotationLink datasetLink = new DatasetAnnotationLinkI();
+        datasetLink.setChild(fileAnnotation);
+        datasetLink.setParent(new DatasetI(attachment.getTargetId(), false));
+        return datasetLink;
+      default:
+        ImageAnnotationLink imageLink = new ImageAnnotationLinkI();
+        imageLink.setChild(fileAnnotation);
+        imageLink.setParent(new ImageI(attachment.getTargetId(), false));
+        return imageLink;
+    }
+  }
+
+  /**
+   * @param link a saved project, dataset or image annotation link
+   * @return the omero identifier of the linked annotation
+   */
+  private static long linkedAnnotationId(IObject link) {
+    if (link instanceof ProjectAnnotationLink) {
+      return ((ProjectAnnotationLink) link).getChild().getId().getValue();
+    } else if (link instanceof DatasetAnnotationLink) {
+      return ((DatasetAnnotationLink) link).getChild().getId().getValue();
+    }
+    return ((ImageAnnotationLink) link).getChild().getId().getValue();
+  }
+
+  /**
+   * Saves the given objects with one request per {@link #SAVE_BATCH_SIZE} objects
+   *
+   * @return the saved objects in the order of the input
+   */
+  private static List<IObject> saveInBatches(IUpdatePrx update, List<IObject> objects)
+      throws ServerError {
+    List<IObject> saved = new ArrayList<>(objects.size());
+    for (int from = 0; from < objects.size(); from += SAVE_BATCH_SIZE) {
+      saved.addAll(update.saveAndReturnArray(
+          new ArrayList<>(objects.subList(from, Math.min(from + SAVE_BATCH_SIZE, objects.size())))));
+    }
+    return saved;
+  }
+
+  /**
+   * Sets the limits within which the chunk sizes of uploads, exports and downloads are adapted to
+   * the measured throughput.
+   *
+   * @param minChunkSize the smallest chunk size in bytes
+   * @param maxChunkSize the largest chunk size in bytes
+   * @see #getTransferMetrics()
+   * @since 1.4.0
+   */
+  public void setTransferChunkSizeLimits(int minChunkSize, int maxChunkSize) {
+    if (minChunkSize <= 0 || minChunkSize > maxChunkSize) {
+      throw new IllegalArgumentException(
+          "Invalid chunk size limits " + minChunkSize + " - " + maxChunkSize);
+    }
+    this.minTransferChunkSize = minChunkSize;
+    this.maxTransferChunkSize = maxChunkSize;
+  }
+
+  /**
+   * Overrides the maximum message size used to limit transfer chunks. By default the
+   * Ice.MessageSizeMax property of the session is used, the override is only needed if the
+   * server accepts smaller messages than the client.
+   *
+   * @param messageSizeLimit the maximum message size in bytes
+   * @since 1.4.0
+   */
+  public void setServerMessageSizeLimit(int messageSizeLimit) {
+    if (messageSizeLimit <= MESSAGE_OVERHEAD) {
+      throw new IllegalArgumentException("Message size limit too small: " + messageSizeLimit);
+    }
+    this.messageSizeLimitOverride = messageSizeLimit;
+  }
+
+  /**
+   * Reads the Ice.MessageSizeMax property of the communicator behind a service proxy
+   *
+   * @param service a service proxy of the session
+   * @return the maximum message size in bytes, {@link Integer#MAX_VALUE} if it is unlimited
+   */
+  private static int messageSizeLimitOf(Ice.ObjectPrx service) {
+    int limitInKb = service.ice_getCommunicator().getProperties()
+        .getPropertyAsIntWithDefault("Ice.MessageSizeMax", ICE_MESSAGE_SIZE_MAX_DEFAULT);
+    if (limitInKb <= 0 || limitInKb >= Integer.MAX_VALUE / 1024) {
+      return Integer.MAX_VALUE;
+    }
+    return limitInKb * 1024;
+  }
+
+  /**
+   * @return the chunk sizes and throughput of the uploads, exports and downloads of this client
+   * @since 1.4.0
+   */
+  public TransferMetrics getTransferMetrics() {
+    return transferMetrics;
+  }
+
+  /**
+   * Creates a controller adapting the chunk size of a single transfer within the configured
+   * limits
+   *
+   * @param operation the transfer operation, e.g. {@link TransferMetrics#UPLOAD}
+   * @param initialChunkSize the size of the first chunk
+   */
+  private ChunkSizeController newChunkSizeController(String operation, int initialChunkSize) {
+    int limit = messageSizeLimitOverride > 0 ? messageSizeLimitOverride : messageSizeLimit;
+    // very small limits leave at least half of the message for data
+    int maxChunkSize = Math.min(maxTransferChunkSize,
+        Math.max(limit - MESSAGE_OVERHEAD, limit / 2));
+    int minChunkSize = Math.min(minTransferChunkSize, maxChunkSize);
+    return new ChunkSizeController(operation, transferMetrics, initialChunkSize, minChunkSize,
+        maxChunkSize);
+  }
 
+  /**
+   * Writes the original files of all images of a dataset into a ZIP archive.
+   *
+   * @param datasetId the omero identifier of the dataset
+   * @param includeFileAnnotations whether files attached to the images are included as well
+   * @param outputStream the stream receiving the archive, it is not closed
+   * @see #writeZipBundle(Collection, boolean, OutputStream)
+   * @since 1.4.0
+   */
+  public void writeDatasetZipBundle(long datasetId, boolean includeFileAnnotations,
+      OutputStream outputStream) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
 
-      FileAnnotation fileAnnotation = new FileAnnotationI();
-      fileAnnotation.setFile(originalFile);
-      fileAnnotation
-          .setDescription(omero.rtypes.rstring("attached file annotation for image " + imageId));
+    List<Long> imageIds = new ArrayList<>();
+    try {
+      BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
+      for (ImageData image : browse
+          .getImagesForDatasets(context(), Collections.singletonList(datasetId))) {
+        imageIds.add(image.getId());
+      }
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ExecutionException executionException) {
+      throw new RuntimeException("Task aborted unexpectedly.", executionException);
+    } catch (DSAccessException dsAccessException) {
+      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+    }
+    writeZipBundle(imageIds, includeFileAnnotations, outputStream);
+  }
 
-      fileAnnotation =
-          (FileAnnotation) dataManagerFacility.saveAndReturnObject(securityContext, fileAnnotation);
+  /**
+   * Writes the original files of the given images into a ZIP archive. Original files are stored
+   * below {@code fileset_<fileset id>/} with their client path, attached files below
+   * {@code annotations/<image id>/}.
+   *
+   * <p>The archive is streamed: entries are written in order while the following files are
+   * already read from the server in parallel. No data is staged on local disk.</p>
+   *
+   * @param imageIds the omero identifiers of the images
+   * @param includeFileAnnotations whether files attached to the images are included as well
+   * @param outputStream the stream receiving the archive, it is not closed
+   * @since 1.4.0
+   */
+  public void writeZipBundle(Collection<Long> imageIds, boolean includeFileAnnotations,
+      OutputStream outputStream) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
 
-      BrowseFacility browseFacility = gateway.getFacility(BrowseFacility.class);
-      ImageData imageData = browseFacility.getImage(securityContext, imageId);
+    List<ZipBundleWriter.Entry> entries = new ArrayList<>();
+    Set<String> paths = new HashSet<>();
+    Set<Long> fileIds = new HashSet<>();
+    try {
+      IQueryPrx query = gateway.getQueryService(context());
+      List<Long> ids = new ArrayList<>(imageIds);
+      for (int from = 0; from < ids.size(); from += QUERY_BATCH_SIZE) {
+        ParametersI parameters = new ParametersI();
+        parameters.addIds(ids.subList(from, Math.min(from + QUERY_BATCH_SIZE, ids.size())));
+        for (IObject result : query.findAllByQuery(
+            "select i from Image as i "
+                + "left outer join fetch i.fileset as fs "
+                + "left outer join fetch fs.usedFiles as fe "
+                + "left outer join fetch fe.originalFile "
+                + "where i.id in (:ids)", parameters)) {
+          Fileset fileset = ((Image) result).getFileset();
+          if (fileset == null) {
+            continue;
+          }
+          for (FilesetEntry filesetEntry : fileset.copyUsedFiles()) {
+            OriginalFile originalFile = filesetEntry.getOriginalFile();
+            long fileId = originalFile.getId().getValue();
+            String clientPath;
+            if (filesetEntry.getClientPath() != null) {
+              clientPath = filesetEntry.getClientPath().getValue();
+            } else if (originalFile.getName() != null) {
+              clientPath = originalFile.getName().getValue();
+            } else {
+              clientPath = "file_" + fileId;
+            }
+            addZipEntry(entries, paths, fileIds,
+                "fileset_" + fileset.getId().getValue() + "/" + clientPath, fileId,
+                originalFile.getSize() != null
+                    ? originalFile.getSize().getValue() : ZipBundleWriter.UNKNOWN_SIZE);
+          }
+        }
+      }
 
-      ImageAnnotationLink annotationLink = new ImageAnnotationLinkI();
-      annotationLink.setChild(fileAnnotation);
-      annotationLink.setParent(imageData.asImage());
-      annotationLink = (ImageAnnotationLink) dataManagerFacility
-          .saveAndReturnObject(securityContext, annotationLink);
+      if (includeFileAnnotations && !ids.isEmpty()) {
+        BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
+        MetadataFacility metadata = gateway.getFacility(MetadataFacility.class);
+        List<ImageData> images = new ArrayList<>(browse.getImages(context(), ids));
+        List<Class<? extends AnnotationData>> types = new ArrayList<>();
+        types.add(FileAnnotationData.class);
+        Map<DataObject, List<AnnotationData>> annotations =
+            metadata.getAnnotations(context(), images, types, null);
+        for (Map.Entry<DataObject, List<AnnotationData>> imageAnnotations : annotations
+            .entrySet()) {
+          for (AnnotationData annotation : imageAnnotations.getValue()) {
+            FileAnnotationData fileAnnotation = (FileAnnotationData) annotation;
+            addZipEntry(entries, paths, fileIds,
+                "annotations/" + imageAnnotations.getKey().getId() + "/"
+                    + fileAnnotation.getFileName(),
+                fileAnnotation.getFileID(), fileAnnotation.getFileSize());
+          }
+        }
+      }
 
-      return fileAnnotation.getId().getValue();
+      SecurityContext context = context();
+      new ZipBundleWriter(() -> gateway.getRawFileService(context), ZIP_READ_AHEAD,
+          ZIP_BUFFERED_BYTES, () -> newChunkSizeController(TransferMetrics.DOWNLOAD, ZIP_CHUNK_SIZE))
+          .write(entries, outputStream);
 
     } catch (DSOutOfServiceException dsOutOfServiceException) {
       throw new RuntimeException(
@@ -592,11 +1519,29 @@ public class BasicOMEROClient {
       throw new RuntimeException("Task aborted unexpectedly.", executionException);
     } catch (DSAccessException dsAccessException) {
       throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
-    } catch (IOException e) {
-      throw new RuntimeException("File operation failed.", e);
     } catch (ServerError serverError) {
       throw new RuntimeException("Omero store interaction failed.", serverError);
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not write zip bundle.", ioException);
+    }
+  }
+
+  /**
+   * Adds an archive entry for an original file, unless the file is part of the archive already.
+   * Entry paths are normalised to stay within the extract directory and made unique by appending
+   * a counter.
+   */
+  private static void addZipEntry(List<ZipBundleWriter.Entry> entries, Set<String> paths,
+      Set<Long> fileIds, String rawPath, long fileId, long size) {
+    if (!fileIds.add(fileId)) {
+      return;
     }
+    String path = ZipBundleWriter.entryName(rawPath);
+    String uniquePath = path;
+    for (int duplicate = 1; !paths.add(uniquePath); duplicate++) {
+      uniquePath = path + "_" + duplicate;
+    }
+    entries.add(new ZipBundleWriter.Entry(uniquePath, fileId, size));
   }
 
   /**
@@ -622,13 +1567,39 @@ public class BasicOMEROClient {
       connect();
     }
 
-    this.projectMap = new HashMap<Long, String>();
-    this.datasetMap = new HashMap<Long, Set<DatasetData>>();
+    SecurityContext context = context();
+    MetadataCache cache = metadataCacheOf(context);
+    HashMap<Long, String> projectMap = new HashMap<Long, String>();
+    Map<Long, Set<DatasetData>> datasetMap = new HashMap<Long, Set<DatasetData>>();
+
+    if (cache != null && !cache.getAll(Kind.PROJECT).isEmpty()) {
+      for (MetadataCache.Entry project : cache.getAll(Kind.PROJECT)) {
+        Set<DatasetData> datasets = new HashSet<>();
+        for (MetadataCache.Entry dataset : cache
+            .getChildren(Kind.DATASET, project.getId())) {
+          DatasetI cachedDataset = new DatasetI(dataset.getId(), true);
+          cachedDataset.setName(omero.rtypes.rstring(dataset.getName()));
+          if (dataset.getDescription() != null) {
+            cachedDataset.setDescription(omero.rtypes.rstring(dataset.getDescription()));
+          }
+          datasets.add(new DatasetData(cachedDataset));
+          indexNameAndDescription(Kind.DATASET, dataset.getId(), dataset.getName(),
+              dataset.getDescription());
+        }
+        projectMap.put(project.getId(), project.getName());
+        indexNameAndDescription(Kind.PROJECT, project.getId(), project.getName(),
+            project.getDescription());
+        datasetMap.put(project.getId(), datasets);
+      }
+      datasetMaps.put(context.getGroupID(), datasetMap);
+      scheduleMetadataCacheSynchronization();
+      return projectMap;
+    }
 
     try {
 
       BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
-      Collection<ProjectData> projects = browse.getProjects(securityContext);
+      Collection<ProjectData> projects = browse.getProjects(context);
 
       Iterator<ProjectData> i = projects.iterator();
       ProjectData project;
@@ -638,8 +1609,28 @@ public class BasicOMEROClient {
         String name = project.getName();
         long id = project.getId();
 
-        this.projectMap.put(id, name);
-        this.datasetMap.put(id, project.getDatasets());
+        projectMap.put(id, name);
+        datasetMap.put(id, project.getDatasets());
+
+        indexNameAndDescription(Kind.PROJECT, id, name, project.getDescription());
+        for (DatasetData dataset : project.getDatasets()) {
+          indexNameAndDescription(Kind.DATASET, dataset.getId(), dataset.getName(),
+              dataset.getDescription());
+        }
+
+        if (cache != null) {
+          cache.put(Kind.PROJECT, MetadataCache.NO_PARENT, id, name,
+              project.getDescription(), MetadataCache.UNKNOWN_UPDATE);
+          for (DatasetData dataset : project.getDatasets()) {
+            cache.put(Kind.DATASET, id, dataset.getId(), dataset.getName(),
+                dataset.getDescription(), MetadataCache.UNKNOWN_UPDATE);
+          }
+        }
+      }
+
+      if (cache != null) {
+        cache.flush();
+        scheduleMetadataCacheSynchronization();
       }
 
     } catch (DSOutOfServiceException dsOutOfServiceException) {
@@ -652,7 +1643,8 @@ public class BasicOMEROClient {
       throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
     }
 
-    return this.projectMap;
+    datasetMaps.put(context.getGroupID(), datasetMap);
+    return projectMap;
   }
 
   public HashMap<String, String> getProjectInfo(long projectId) {
@@ -666,7 +1658,7 @@ public class BasicOMEROClient {
     try {
 
       BrowseFacility browse = gateway.getFacility(BrowseFacility.class);
-      Collection<ProjectData> projects = browse.getProjects(securityContext);
+      Collection<ProjectData> projects = browse.getProjects(context());
 
       Iterator<ProjectData> i = projects.iterator();
       ProjectData project;
@@ -677,6 +1669,8 @@ public class BasicOMEROClient {
 
           projectInfo.put("name", project.getName());
           projectInfo.put("desc", project.getDescription());
+          indexNameAndDescription(Kind.PROJECT, projectId, project.getName(),
+              project.getDescription());
 
           break;
         }
@@ -703,7 +1697,13 @@ public class BasicOMEROClient {
     HashMap<Long, HashMap<String, String>> datasetList =
         new HashMap<Long, HashMap<String, String>>();
 
-    Set<DatasetData> datasets = this.datasetMap.get(projectId);
+    // the datasets of a group are known once its projects were loaded
+    Map<Long, Set<DatasetData>> datasetMap = datasetMaps.get(context().getGroupID());
+    if (datasetMap == null) {
+      loadProjects();
+      datasetMap = datasetMaps.get(context().getGroupID());
+    }
+    Set<DatasetData> datasets = datasetMap.getOrDefault(projectId, Collections.emptySet());
 
     Iterator<DatasetData> iterator = datasets.iterator();
     DatasetData dataset;
@@ -741,7 +1741,7 @@ public class BasicOMEROClient {
 
     IObject r;
     try {
-      r = dm.saveAndReturnObject(this.securityContext, proj);
+      r = dm.saveAndReturnObject(context(), proj);
     } catch (DSOutOfServiceException dsOutOfServiceException) {
       throw new RuntimeException(
           "Error while accessing omero service: broken connection, expired session or not logged in",
@@ -750,7 +1750,9 @@ public class BasicOMEROClient {
       throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
     }
 
-    return r.getId().getValue();
+    long projectId = r.getId().getValue();
+    projectCreated(context(), projectId, name, desc);
+    return projectId;
 
   }
 
@@ -776,7 +1778,7 @@ public class BasicOMEROClient {
 
     IObject r = null;
     try {
-      r = dm.saveAndReturnObject(this.securityContext, link);
+      r = dm.saveAndReturnObject(context(), link);
     } catch (DSOutOfServiceException dsOutOfServiceException) {
       throw new RuntimeException(
           "Error while accessing omero service: broken connection, expired session or not logged in",
@@ -786,7 +1788,9 @@ public class BasicOMEROClient {
     }
 
     ProjectDatasetLink remote_link = (ProjectDatasetLink) r;
-    return remote_link.getChild().getId().getValue();
+    long datasetId = remote_link.getChild().getId().getValue();
+    datasetCreated(context(), projectId, datasetId, name, desc);
+    return datasetId;
 
 
   }
@@ -809,7 +1813,8 @@ public class BasicOMEROClient {
 
     try {
       DataManagerFacility fac = gateway.getFacility(DataManagerFacility.class);
-      fac.attachAnnotation(securityContext, data, new ProjectData(new ProjectI(projectId, false)));
+      fac.attachAnnotation(context(), data, new ProjectData(new ProjectI(projectId, false)));
+      mapAnnotationAdded(Kind.PROJECT, projectId, key, value);
     } catch (DSOutOfServiceException dsOutOfServiceException) {
       throw new RuntimeException(
           "Error while accessing omero service: broken connection, expired session or not logged in",
@@ -837,7 +1842,8 @@ public class BasicOMEROClient {
     data.setNameSpace(MapAnnotationData.NS_CLIENT_CREATED);
     try {
       DataManagerFacility fac = gateway.getFacility(DataManagerFacility.class);
-      fac.attachAnnotation(securityContext, data, new DatasetData(new DatasetI(datasetId, false)));
+      fac.attachAnnotation(context(), data, new DatasetData(new DatasetI(datasetId, false)));
+      mapAnnotationAdded(Kind.DATASET, datasetId, key, value);
     } catch (DSOutOfServiceException dsOutOfServiceException) {
       throw new RuntimeException(
           "Error while accessing omero service: broken connection, expired session or not logged in",
@@ -849,6 +1855,80 @@ public class BasicOMEROClient {
     }
   }
 
+  /**
+   * Creates a queue deferring the creation of projects, datasets, map annotations and file
+   * attachments. The queued mutations are saved in batches of up to {@code maxBatchSize}
+   * mutations with one request each, instead of one request per mutation. Mutations are saved with
+   * the security context of the calling thread.
+   *
+   * @param maxBatchSize the number of queued mutations after which the queue is flushed
+   * @param maxDelayMillis how long a mutation is queued at most before the queue is flushed
+   * @return a new queue, to be closed by the caller
+   * @see MutationQueue
+   * @since 1.4.0
+   */
+  public MutationQueue newMutationQueue(int maxBatchSize, long maxDelayMillis) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+    return new MutationQueue(this, context(), maxBatchSize, maxDelayMillis);
+  }
+
+  /**
+   * Saves the given objects with one request and in one transaction
+   *
+   * @return the saved objects in the order of the input
+   */
+  List<IObject> saveObjects(SecurityContext context, List<IObject> objects)
+      throws DSOutOfServiceException, ServerError {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+    return gateway.getUpdateService(context).saveAndReturnArray(objects);
+  }
+
+  /**
+   * Indexes a project created with the given context and adds it to the metadata cache, if the
+   * cache holds the projects of the group already
+   */
+  void projectCreated(SecurityContext context, long projectId, String name, String desc) {
+    indexNameAndDescription(Kind.PROJECT, projectId, name, desc);
+    MetadataCache cache = metadataCacheOf(context);
+    if (cache != null && cache.hasChildren(Kind.PROJECT, MetadataCache.NO_PARENT)) {
+      cache.put(Kind.PROJECT, MetadataCache.NO_PARENT, projectId, name, desc,
+          MetadataCache.UNKNOWN_UPDATE);
+      cache.flush();
+    }
+  }
+
+  /**
+   * Indexes a dataset created with the given context and adds it to the metadata cache, if the
+   * cache holds its project
+   */
+  void datasetCreated(SecurityContext context, long projectId, long datasetId, String name,
+      String desc) {
+    indexNameAndDescription(Kind.DATASET, datasetId, name, desc);
+    MetadataCache cache = metadataCacheOf(context);
+    if (cache != null && cache.get(Kind.PROJECT, MetadataCache.NO_PARENT, projectId) != null) {
+      cache.put(Kind.DATASET, projectId, datasetId, name, desc, MetadataCache.UNKNOWN_UPDATE);
+      cache.flush();
+    }
+    ThumbnailWarmUpScheduler warmUp = this.thumbnailWarmUp;
+    if (warmUp != null && this.warmUpCreatedDatasets) {
+      warmUp.watch(context, datasetId);
+    }
+  }
+
+  /**
+   * Indexes a map annotation added to an object. The pair is added to the indexed annotations of
+   * the object, which are replaced once all annotations of the object are loaded again.
+   */
+  void mapAnnotationAdded(Kind kind, long id, String key, String value) {
+    searchIndex.add(kind, id, SearchIndex.ANNOTATIONS, key + " " + value);
+  }
+
   public HashMap<Long, String> getImages(long datasetId) {
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
@@ -856,17 +1936,38 @@ public class BasicOMEROClient {
     }
 
     HashMap<Long, String> imageList = new HashMap<Long, String>();
+    MetadataCache cache = metadataCacheOf(context());
+
+    if (cache != null && cache.hasChildren(Kind.IMAGE, datasetId)) {
+      for (MetadataCache.Entry image : cache.getChildren(Kind.IMAGE, datasetId)) {
+        imageList.put(image.getId(), image.getName());
+        indexNameAndDescription(Kind.IMAGE, image.getId(), image.getName(),
+            image.getDescription());
+      }
+      scheduleMetadataCacheSynchronization();
+      return imageList;
+    }
 
     try {
       BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
       Collection<ImageData> images =
-          browse.getImagesForDatasets(securityContext, Arrays.asList(datasetId));
+          browse.getImagesForDatasets(context(), Arrays.asList(datasetId));
 
       Iterator<ImageData> j = images.iterator();
       ImageData image;
       while (j.hasNext()) {
         image = j.next();
         imageList.put(image.getId(), image.getName());
+        indexNameAndDescription(Kind.IMAGE, image.getId(), image.getName(),
+            image.getDescription());
+        if (cache != null) {
+          cache.put(Kind.IMAGE, datasetId, image.getId(), image.getName(),
+              image.getDescription(), MetadataCache.UNKNOWN_UPDATE);
+        }
+      }
+      if (cache != null) {
+        cache.flush();
+        scheduleMetadataCacheSynchronization();
       }
     } catch (DSOutOfServiceException dsOutOfServiceException) {
       throw new RuntimeException(
@@ -881,58 +1982,58 @@ public class BasicOMEROClient {
     return imageList;
   }
 
+  /**
+   * Loads basic information about an image
+   *
+   * @param datasetId the omero identifier of the dataset containing the image, not used with
+   *     request coalescing, which loads images by id
+   * @param imageId the omero identifier of the image
+   * @return the name, description, size, number of time points and channel names of the image
+   * @throws NoSuchElementException if the image does not exist or, without request coalescing,
+   *     is not part of the dataset
+   */
   public HashMap<String, String> getImageInfo(long datasetId, long imageId) {
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
       connect();
     }
 
-    HashMap<String, String> imageInfo = new HashMap<String, String>();
+    Coalescing coalescing = coalescingOfContext();
+    if (coalescing != null) {
+      HashMap<String, String> imageInfo = await(coalescing.imageInfos.request(imageId));
+      if (imageInfo == null) {
+        throw imageNotFound(imageId);
+      }
+      return imageInfo;
+    }
+
+    HashMap<String, String> imageInfo;
 
     try {
 
       BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
       Collection<ImageData> images =
-          browse.getImagesForDatasets(this.securityContext, Arrays.asList(datasetId));
+          browse.getImagesForDatasets(context(), Arrays.asList(datasetId));
 
       Iterator<ImageData> j = images.iterator();
       ImageData image = null;
-      while (j.hasNext()) {
-        image = j.next();
-        if (image.getId() == imageId) {
-          break;
+      while (j.hasNext() && image == null) {
+        ImageData candidate = j.next();
+        if (candidate.getId() == imageId) {
+          image = candidate;
         }
       }
 
-      if (image != null) {
-
-        imageInfo.put("name", image.getName());
-        imageInfo.put("desc", image.getDescription());
-
-        PixelsData pixels = image.getDefaultPixels();
-        int sizeZ = pixels.getSizeZ(); // The number of z-sections.
-        int sizeT = pixels.getSizeT(); // The number of timepoints.
-        int sizeC = pixels.getSizeC(); // The number of channels.
-        int sizeX = pixels.getSizeX(); // The number of pixels along the X-axis.
-        int sizeY = pixels.getSizeY(); // The number of pixels along the Y-axis.
-
-        imageInfo.put("size",
-            String.valueOf(sizeX) + " x " + String.valueOf(sizeY) + " x " + String.valueOf(sizeZ));
-        imageInfo.put("tps", String.valueOf(sizeT));
-
-        MetadataFacility mdf = gateway.getFacility(MetadataFacility.class);
-
-        String channelNamesString = "";
-        List<ChannelData> data = mdf.getChannelData(securityContext, imageId);
-        for (ChannelData c : data) {
-          channelNamesString = channelNamesString + c.getName() + ", ";
-        }
-        channelNamesString = channelNamesString.substring(0, channelNamesString.length() - 2);
-
-        imageInfo.put("channels", channelNamesString);
+      if (image == null) {
+        throw imageNotFound(imageId);
       }
+      MetadataFacility mdf = gateway.getFacility(MetadataFacility.class);
 
-
+      List<String> channelNames = new ArrayList<>();
+      for (ChannelData c : mdf.getChannelData(context(), imageId)) {
+        channelNames.add(c.getName());
+      }
+      imageInfo = toImageInfoMap(image, channelNames);
 
     } catch (DSOutOfServiceException dsOutOfServiceException) {
       throw new RuntimeException(
@@ -948,57 +2049,96 @@ public class BasicOMEROClient {
   }
 
   /**
-   * This method returns a http address at which the given image can be viewed using the omero web
-   * client.
-   * 
-   * @param imageId the omero id of a selected image
-   * @return an address at which the given image can be viewed using the omero web client
+   * Describes an image in the format of {@link #getImageInfo(long, long)}
+   *
+   * @param image the image to describe
+   * @param channelNames the names of the channels of the image
+   * @return the name, description, size, number of time points and channel names of the image
    */
-  public String composeImageDetailAddress(long imageId) {
-    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
-    if (!this.isConnected()) {
-      connect();
-    }
+  private HashMap<String, String> toImageInfoMap(ImageData image, List<String> channelNames) {
+    HashMap<String, String> imageInfo = new HashMap<String, String>();
+    imageInfo.put("name", image.getName());
+    imageInfo.put("desc", image.getDescription());
+    indexNameAndDescription(Kind.IMAGE, image.getId(), image.getName(),
+        image.getDescription());
 
-    return "https://" + hostname + "/webgateway/img_detail/" + imageId + "/?server=" + serverId
-        + "&bsession=" + sessionUuid;
+    PixelsData pixels = image.getDefaultPixels();
+    int sizeZ = pixels.getSizeZ(); // The number of z-sections.
+    int sizeT = pixels.getSizeT(); // The number of timepoints.
+    int sizeX = pixels.getSizeX(); // The number of pixels along the X-axis.
+    int sizeY = pixels.getSizeY(); // The number of pixels along the Y-axis.
+
+    imageInfo.put("size",
+        String.valueOf(sizeX) + " x " + String.valueOf(sizeY) + " x " + String.valueOf(sizeZ));
+    imageInfo.put("tps", String.valueOf(sizeT));
+    imageInfo.put("channels", String.join(", ", channelNames));
+    return imageInfo;
   }
 
   /**
+   * Takes a memory compact snapshot of all images of a dataset, including their dimensions and
+   * channel names. The snapshot is built in a single pass over the images of the dataset.
    *
-   *
-   * @param datasetId
-   * @param imageId
-   * @return
+   * @param datasetId the omero identifier of the dataset
+   * @return a {@link DatasetSnapshot} of the images of the dataset
+   * @since 1.4.0
    */
-  public ByteArrayInputStream getThumbnail(long datasetId, long imageId) {
+  public DatasetSnapshot getDatasetSnapshot(long datasetId) {
     // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
     if (!this.isConnected()) {
       connect();
     }
 
-    ThumbnailStorePrx store = null;
-    ByteArrayInputStream imageByteStream = null;
     try {
       BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
       Collection<ImageData> images =
-          browse.getImagesForDatasets(this.securityContext, Collections.singletonList(datasetId));
+          browse.getImagesForDatasets(context(), Collections.singletonList(datasetId));
+      Map<Long, List<String>> channelNames = loadChannelNames(images);
 
-      Iterator<ImageData> j = images.iterator();
-      ImageData image = null;
-      while (j.hasNext()) {
-        image = j.next();
-        if (image.getId() == imageId) {
-          break;
-        }
+      DatasetSnapshot.Builder snapshot = DatasetSnapshot.builder(datasetId, images.size());
+      for (ImageData image : images) {
+        indexNameAndDescription(Kind.IMAGE, image.getId(), image.getName(),
+            image.getDescription());
+        PixelsData pixels = image.getDefaultPixels();
+        snapshot.addImage(image.getId(), image.getName(), image.getDescription(),
+            pixels.getSizeX(), pixels.getSizeY(), pixels.getSizeZ(), pixels.getSizeT(),
+            pixels.getSizeC(), channelNames.getOrDefault(pixels.getId(), Collections.emptyList()));
       }
+      return snapshot.build();
 
-      store = this.gateway.getThumbnailService(securityContext);
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ExecutionException executionException) {
+      throw new RuntimeException("Task aborted unexpectedly.", executionException);
+    } catch (DSAccessException dsAccessException) {
+      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+    } catch (ServerError serverError) {
+      throw new RuntimeException("Omero store interaction failed.", serverError);
+    }
+  }
 
-      PixelsData pixels = Objects.requireNonNull(image).getDefaultPixels();
-      store.setPixelsId(pixels.getId());
-      byte[] array = store.getThumbnail(omero.rtypes.rint(96), omero.rtypes.rint(96));
-      imageByteStream = new ByteArrayInputStream(array);
+  /**
+   * Returns basic information for all images of a dataset. The images are listed once and the
+   * channel metadata of all images is loaded in batches, instead of one request per image as in
+   * {@link #getImageInfo(long, long)}.
+   *
+   * @param datasetId the omero identifier of the dataset
+   * @return a list containing an {@link ImageInfo} for every image of the dataset
+   * @since 1.4.0
+   */
+  public List<ImageInfo> getImageInfos(long datasetId) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    try {
+      BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
+      Collection<ImageData> images =
+          browse.getImagesForDatasets(context(), Collections.singletonList(datasetId));
+      return toImageInfos(images);
 
     } catch (DSOutOfServiceException dsOutOfServiceException) {
       throw new RuntimeException(
@@ -1011,15 +2151,814 @@ public class BasicOMEROClient {
     } catch (ServerError serverError) {
       throw new RuntimeException("Omero store interaction failed.", serverError);
     }
+  }
+
+  /**
+   * Creates image information for the given images, loading their channel names in batches
+   *
+   * @param images the images to describe
+   * @return a list containing an {@link ImageInfo} for every image in the order of the input
+   */
+  private List<ImageInfo> toImageInfos(Collection<ImageData> images)
+      throws DSOutOfServiceException, ServerError {
+    Map<Long, List<String>> channelNames = loadChannelNames(images);
+
+    List<ImageInfo> imageInfos = new ArrayList<>(images.size());
+    for (ImageData image : images) {
+      indexNameAndDescription(Kind.IMAGE, image.getId(), image.getName(),
+          image.getDescription());
+      PixelsData pixels = image.getDefaultPixels();
+      imageInfos.add(new ImageInfo(image.getId(), pixels.getId(), image.getName(),
+          image.getDescription(), pixels.getSizeX(), pixels.getSizeY(), pixels.getSizeZ(),
+          pixels.getSizeT(), pixels.getSizeC(),
+          channelNames.getOrDefault(pixels.getId(), Collections.emptyList())));
+    }
+    return imageInfos;
+  }
+
+  /**
+   * Loads the channel names of the default pixels of the given images
+   *
+   * @param images the images for which channel names are loaded
+   * @return the channel names in channel order by pixels id
+   * @see #loadChannelData(Collection)
+   */
+  private Map<Long, List<String>> loadChannelNames(Collection<ImageData> images)
+      throws DSOutOfServiceException, ServerError {
+    Map<Long, List<String>> channelNames = new HashMap<>();
+    for (Map.Entry<Long, List<ChannelData>> channels : loadChannelData(images).entrySet()) {
+      List<String> names = new ArrayList<>(channels.getValue().size());
+      for (ChannelData channel : channels.getValue()) {
+        names.add(channel.getName());
+      }
+      channelNames.put(channels.getKey(), names);
+    }
+    return channelNames;
+  }
+
+  /**
+   * Loads the channel data of the default pixels of the given images. In contrast to {@link
+   * MetadataFacility#getChannelData(SecurityContext, long)} the channels of up to {@link
+   * #QUERY_BATCH_SIZE} pixels are fetched with a single query.
+   *
+   * @param images the images for which channel data is loaded
+   * @return the channel data in channel order by pixels id
+   */
+  private Map<Long, List<ChannelData>> loadChannelData(Collection<ImageData> images)
+      throws DSOutOfServiceException, ServerError {
+    List<Long> pixelsIds = new ArrayList<>(images.size());
+    for (ImageData image : images) {
+      pixelsIds.add(image.getDefaultPixels().getId());
+    }
+
+    Map<Long, List<ChannelData>> channelData = new HashMap<>();
+    IQueryPrx query = gateway.getQueryService(context());
+    for (int from = 0; from < pixelsIds.size(); from += QUERY_BATCH_SIZE) {
+      List<Long> batch =
+          pixelsIds.subList(from, Math.min(from + QUERY_BATCH_SIZE, pixelsIds.size()));
+      ParametersI parameters = new ParametersI();
+      parameters.addIds(batch);
+      List<IObject> results = query.findAllByQuery(
+          "select p from Pixels as p "
+              + "left outer join fetch p.channels as c "
+              + "left outer join fetch c.logicalChannel "
+              + "left outer join fetch c.statsInfo "
+              + "where p.id in (:ids)", parameters);
+
+      for (IObject result : results) {
+        Pixels pixels = (Pixels) result;
+        List<ChannelData> channels = new ArrayList<>();
+        int index = 0;
+        for (Channel channel : pixels.copyChannels()) {
+          channels.add(new ChannelData(index++, channel));
+        }
+        channelData.put(pixels.getId().getValue(), channels);
+      }
+    }
+    return channelData;
+  }
+
+  /**
+   * Loads the ROIs of many images with batched queries. The geometry of all shapes is returned
+   * in primitive arrays, no per-shape objects are kept.
+   *
+   * @param imageIds the omero identifiers of the images
+   * @return the shapes of all ROIs of the images, ordered by image and ROI
+   * @see #streamRois(long, int, Consumer)
+   * @since 1.4.0
+   */
+  public ShapeBatch getRois(Collection<Long> imageIds) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    ShapeBatch.Builder shapes = ShapeBatch.builder(imageIds.size());
+    try {
+      IQueryPrx query = gateway.getQueryService(context());
+      List<Long> ids = new ArrayList<>(imageIds);
+      for (int from = 0; from < ids.size(); from += QUERY_BATCH_SIZE) {
+        ParametersI parameters = new ParametersI();
+        parameters.addIds(ids.subList(from, Math.min(from + QUERY_BATCH_SIZE, ids.size())));
+        for (IObject result : query.findAllByQuery(
+            "select distinct r from Roi as r "
+                + "left outer join fetch r.shapes "
+                + "where r.image.id in (:ids) "
+                + "order by r.image.id, r.id", parameters)) {
+          Roi roi = (Roi) result;
+          long imageId = roi.getImage().getId().getValue();
+          for (Shape shape : roi.copyShapes()) {
+            addShape(shapes, imageId, roi.getId().getValue(), shape);
+          }
+        }
+      }
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ServerError serverError) {
+      throw new RuntimeException("Omero store interaction failed.", serverError);
+    }
+    return shapes.build();
+  }
+
+  /**
+   * Loads the ROI shapes of an image page by page, for images with too many shapes to hold at
+   * once. Pages are fetched by shape id, so every page costs a single indexed query, and each
+   * page is handed to the consumer before the next one is loaded.
+   *
+   * @param imageId the omero identifier of the image
+   * @param pageSize the maximum number of shapes per page
+   * @param consumer receives the pages in shape id order
+   * @since 1.4.0
+   */
+  public void streamRois(long imageId, int pageSize, Consumer<ShapeBatch> consumer) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Invalid page size " + pageSize);
+    }
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
 
     try {
-      store.close();
+      IQueryPrx query = gateway.getQueryService(context());
+      long lastShapeId = -1;
+      while (true) {
+        ParametersI parameters = new ParametersI();
+        parameters.addLong("imageId", imageId);
+        parameters.addLong("lastShapeId", lastShapeId);
+        parameters.page(0, pageSize);
+        List<IObject> results = query.findAllByQuery(
+            "select s from Shape as s "
+                + "where s.roi.image.id = :imageId and s.id > :lastShapeId "
+                + "order by s.id", parameters);
+        if (results.isEmpty()) {
+          return;
+        }
+
+        ShapeBatch.Builder page = ShapeBatch.builder(results.size());
+        for (IObject result : results) {
+          Shape shape = (Shape) result;
+          addShape(page, imageId, shape.getRoi().getId().getValue(), shape);
+          lastShapeId = shape.getId().getValue();
+        }
+        consumer.accept(page.build());
+        if (results.size() < pageSize) {
+          return;
+        }
+      }
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
     } catch (ServerError serverError) {
-      throw new RuntimeException("Omero store could not be closed.", serverError);
+      throw new RuntimeException("Omero store interaction failed.", serverError);
+    }
+  }
+
+  /**
+   * Adds the geometry of a shape to a batch in the layout described by {@link ShapeBatch}.
+   * Polygons and polylines whose points cannot be parsed are skipped.
+   */
+  private void addShape(ShapeBatch.Builder shapes, long imageId, long roiId,
+      Shape shape) {
+    long shapeId = shape.getId().getValue();
+    int theZ = shape.getTheZ() != null ? shape.getTheZ().getValue() : ShapeBatch.ANY_PLANE;
+    int theT = shape.getTheT() != null ? shape.getTheT().getValue() : ShapeBatch.ANY_PLANE;
+    int theC = shape.getTheC() != null ? shape.getTheC().getValue() : ShapeBatch.ANY_PLANE;
+
+    if (shape instanceof Rectangle) {
+      Rectangle rectangle = (Rectangle) shape;
+      shapes.addShape(imageId, roiId, shapeId, ShapeType.RECTANGLE, theZ, theT, theC)
+          .addCoordinate(value(rectangle.getX())).addCoordinate(value(rectangle.getY()))
+          .addCoordinate(value(rectangle.getWidth())).addCoordinate(value(rectangle.getHeight()));
+    } else if (shape instanceof Mask) {
+      Mask mask = (Mask) shape;
+      shapes.addShape(imageId, roiId, shapeId, ShapeType.MASK, theZ, theT, theC)
+          .addCoordinate(value(mask.getX())).addCoordinate(value(mask.getY()))
+          .addCoordinate(value(mask.getWidth())).addCoordinate(value(mask.getHeight()));
+      if (mask.getBytes() != null) {
+        shapes.setMask(mask.getBytes());
+      }
+    } else if (shape instanceof Ellipse) {
+      Ellipse ellipse = (Ellipse) shape;
+      shapes.addShape(imageId, roiId, shapeId, ShapeType.ELLIPSE, theZ, theT, theC)
+          .addCoordinate(value(ellipse.getX())).addCoordinate(value(ellipse.getY()))
+          .addCoordinate(value(ellipse.getRadiusX())).addCoordinate(value(ellipse.getRadiusY()));
+    } else if (shape instanceof Line) {
+      Line line = (Line) shape;
+      shapes.addShape(imageId, roiId, shapeId, ShapeType.LINE, theZ, theT, theC)
+          .addCoordinate(value(line.getX1())).addCoordinate(value(line.getY1()))
+          .addCoordinate(value(line.getX2())).addCoordinate(value(line.getY2()));
+    } else if (shape instanceof Point) {
+      Point point = (Point) shape;
+      shapes.addShape(imageId, roiId, shapeId, ShapeType.POINT, theZ, theT, theC)
+          .addCoordinate(value(point.getX())).addCoordinate(value(point.getY()));
+    } else if (shape instanceof Polygon) {
+      shapes.addShape(imageId, roiId, shapeId, ShapeType.POLYGON, theZ, theT, theC);
+      addPoints(shapes, shapeId, ((Polygon) shape).getPoints());
+    } else if (shape instanceof Polyline) {
+      shapes.addShape(imageId, roiId, shapeId, ShapeType.POLYLINE, theZ, theT, theC);
+      addPoints(shapes, shapeId, ((Polyline) shape).getPoints());
+    } else {
+      shapes.addShape(imageId, roiId, shapeId, ShapeType.OTHER, theZ, theT, theC);
+    }
+  }
+
+  /**
+   * Adds the points of the last added shape, removes the shape if they cannot be parsed
+   */
+  private void addPoints(ShapeBatch.Builder shapes, long shapeId, RString points) {
+    if (points == null || points.getValue() == null) {
+      return;
+    }
+    try {
+      shapes.addPoints(points.getValue());
+    } catch (IllegalArgumentException invalidPoints) {
+      shapes.removeLastShape();
+      logger.warn(this, "Skipped shape " + shapeId + " with unparseable points: "
+          + invalidPoints.getMessage());
+    }
+  }
+
+  private static double value(RDouble value) {
+    return value != null ? value.getValue() : Double.NaN;
+  }
+
+  /**
+   * This method returns a http address at which the given image can be viewed using the omero web
+   * client.
+   * 
+   * @param imageId the omero id of a selected image
+   * @return an address at which the given image can be viewed using the omero web client
+   */
+  public String composeImageDetailAddress(long imageId) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    return "https://" + hostname + "/webgateway/img_detail/" + imageId + "/?server=" + serverId
+        + "&bsession=" + sessionUuid;
+  }
+
+  /**
+   * Loads the thumbnail of an image
+   *
+   * @param datasetId the omero identifier of the dataset containing the image, not used with
+   *     request coalescing, which loads images by id
+   * @param imageId the omero identifier of the image
+   * @return the encoded thumbnail, at most 96 pixels wide and high
+   * @throws NoSuchElementException if the image does not exist or, without request coalescing,
+   *     is not part of the dataset
+   */
+  public ByteArrayInputStream getThumbnail(long datasetId, long imageId) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    // thumbnails are only cached while the warm-up is enabled
+    boolean cached = this.thumbnailWarmUp != null;
+    if (cached) {
+      byte[] cachedThumbnail = thumbnailCache.get(imageId);
+      if (cachedThumbnail != null) {
+        return new ByteArrayInputStream(cachedThumbnail);
+      }
+    }
+
+    Coalescing coalescing = coalescingOfContext();
+    if (coalescing != null) {
+      byte[] thumbnail = await(coalescing.thumbnails.request(imageId));
+      if (thumbnail == null) {
+        throw imageNotFound(imageId);
+      }
+      return new ByteArrayInputStream(thumbnail);
     }
 
-    return imageByteStream;
+    ImageData image = null;
+    try {
+      BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
+      Collection<ImageData> images =
+          browse.getImagesForDatasets(context(), Collections.singletonList(datasetId));
 
+      Iterator<ImageData> j = images.iterator();
+      while (j.hasNext() && image == null) {
+        ImageData candidate = j.next();
+        if (candidate.getId() == imageId) {
+          image = candidate;
+        }
+      }
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ExecutionException executionException) {
+      throw new RuntimeException("Task aborted unexpectedly.", executionException);
+    } catch (DSAccessException dsAccessException) {
+      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+    }
+
+    if (image == null) {
+      throw imageNotFound(imageId);
+    }
+    long pixelsId = image.getDefaultPixels().getId();
+    byte[] array = read(HedgingPolicy.THUMBNAIL, (readGateway, context) -> {
+      ThumbnailStorePrx store = readGateway.getThumbnailService(context);
+      try {
+        store.setPixelsId(pixelsId);
+        return store.getThumbnail(omero.rtypes.rint(THUMBNAIL_SIZE),
+            omero.rtypes.rint(THUMBNAIL_SIZE));
+      } finally {
+        store.close();
+      }
+    });
+    if (cached) {
+      thumbnailCache.put(imageId, array);
+    }
+    return new ByteArrayInputStream(array);
+  }
+
+  private static NoSuchElementException imageNotFound(long imageId) {
+    return new NoSuchElementException("Image " + imageId + " was not found.");
+  }
+
+  /**
+   * Enables the background warm-up of thumbnails. Thumbnails of warmed up datasets are generated
+   * on the server and kept in the thumbnail cache of this client, which {@link
+   * #getThumbnail(long, long)} answers from while the warm-up is enabled. Cached thumbnails
+   * expire after ten minutes, the cache holds up to 2000 thumbnails.
+   *
+   * @param concurrency the maximum number of thumbnail batches requested at the same time
+   * @param watchCreatedDatasets whether datasets created with {@link #createDataset(long, String,
+   *     String)} are watched for an hour and images imported into them are warmed up, the
+   *     datasets are polled less often while no new images appear
+   * @see #warmUpThumbnails(Collection)
+   * @since 1.4.0
+   */
+  public void enableThumbnailWarmUp(int concurrency, boolean watchCreatedDatasets) {
+    disableThumbnailWarmUp();
+    this.warmUpCreatedDatasets = watchCreatedDatasets;
+    this.thumbnailCache.clear();
+    this.thumbnailWarmUp = new ThumbnailWarmUpScheduler(this::loadPixelsIdsOfDataset,
+        this::loadThumbnails, thumbnailCache, concurrency, THUMBNAIL_POLL_INTERVAL_MILLIS,
+        THUMBNAIL_WATCH_MILLIS);
+  }
+
+  /**
+   * Stops the background warm-up of thumbnails and discards the cached thumbnails.
+   *
+   * @since 1.4.0
+   */
+  public void disableThumbnailWarmUp() {
+    ThumbnailWarmUpScheduler warmUp = this.thumbnailWarmUp;
+    this.thumbnailWarmUp = null;
+    if (warmUp != null) {
+      warmUp.shutdown();
+    }
+    this.thumbnailCache.clear();
+  }
+
+  /**
+   * Requests the thumbnails of all images of the given datasets in the background.
+   *
+   * @param datasetIds the omero identifiers of the datasets
+   * @throws IllegalStateException if the thumbnail warm-up is not enabled
+   * @see #enableThumbnailWarmUp(int, boolean)
+   * @since 1.4.0
+   */
+  public void warmUpThumbnails(Collection<Long> datasetIds) {
+    ThumbnailWarmUpScheduler warmUp = this.thumbnailWarmUp;
+    if (warmUp == null) {
+      throw new IllegalStateException("The thumbnail warm-up is not enabled.");
+    }
+    warmUp.schedule(context(), datasetIds);
+  }
+
+  /**
+   * @param context the security context the dataset is listed with
+   * @param datasetId the omero identifier of a dataset
+   * @return the ids of the default pixels of the images of the dataset by image id
+   */
+  private Map<Long, Long> loadPixelsIdsOfDataset(SecurityContext context, long datasetId) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    try {
+      BrowseFacility browse = this.gateway.getFacility(BrowseFacility.class);
+      Map<Long, Long> pixelsIds = new HashMap<>();
+      for (ImageData image : browse
+          .getImagesForDatasets(context, Collections.singletonList(datasetId))) {
+        pixelsIds.put(image.getId(), image.getDefaultPixels().getId());
+      }
+      return pixelsIds;
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ExecutionException executionException) {
+      throw new RuntimeException("Task aborted unexpectedly.", executionException);
+    } catch (DSAccessException dsAccessException) {
+      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+    }
+  }
+
+  /**
+   * Loads the thumbnails of many pixels with a single request
+   *
+   * @param context the security context the thumbnails are loaded with
+   * @param pixelsIds the omero identifiers of the pixels
+   * @return the thumbnails by pixels id
+   */
+  private Map<Long, byte[]> loadThumbnails(SecurityContext context, Collection<Long> pixelsIds) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    try {
+      return loadThumbnails(this.gateway, context, pixelsIds);
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ServerError serverError) {
+      throw new RuntimeException("Omero store interaction failed.", serverError);
+    }
+  }
+
+  /**
+   * Loads the thumbnails of many pixels with a single request through the given gateway
+   */
+  private static Map<Long, byte[]> loadThumbnails(Gateway gateway, SecurityContext context,
+      Collection<Long> pixelsIds) throws DSOutOfServiceException, ServerError {
+    ThumbnailStorePrx store = gateway.getThumbnailService(context);
+    try {
+      return store.getThumbnailSet(omero.rtypes.rint(THUMBNAIL_SIZE),
+          omero.rtypes.rint(THUMBNAIL_SIZE), new ArrayList<>(pixelsIds));
+    } finally {
+      try {
+        store.close();
+      } catch (ServerError serverError) {
+        // the thumbnails were loaded already or the request failed, the store is discarded anyway
+      }
+    }
+  }
+
+  /**
+   * Applies deadlines to the idempotent reads of this client and hedges slow reads with a second
+   * request through an additional session. Currently {@link #getThumbnail(long, long)} and single
+   * image lookups, e.g. by {@link #getImageDownloadLink(long)} or the annotation fetches, are
+   * covered, as well as the image and thumbnail loads of coalesced requests.
+   *
+   * @param policy the deadlines and hedging configuration
+   * @see HedgingPolicy#THUMBNAIL
+   * @see HedgingPolicy#IMAGE
+   * @see HedgingPolicy#IMAGE_BATCH
+   * @see HedgingPolicy#THUMBNAIL_BATCH
+   * @since 1.4.0
+   */
+  public void enableHedgedReads(HedgingPolicy policy) {
+    disableHedgedReads();
+    this.hedgedReader = new HedgedReader(Objects.requireNonNull(policy), readLatencies,
+        this::joinSession);
+  }
+
+  /**
+   * Stops applying deadlines and hedging to reads. The additional sessions are closed.
+   *
+   * @since 1.4.0
+   */
+  public void disableHedgedReads() {
+    HedgedReader reader = this.hedgedReader;
+    this.hedgedReader = null;
+    if (reader != null) {
+      reader.close();
+    }
+  }
+
+  /**
+   * @return the latencies of the reads of this client by {@link HedgingPolicy} operation, recorded
+   *     whether or not hedged reads are enabled
+   * @since 1.4.0
+   */
+  public LatencyTracker getReadLatencies() {
+    return readLatencies;
+  }
+
+  /**
+   * Runs an idempotent read, with deadline and hedging if hedged reads are enabled
+   *
+   * @param operation the read operation
+   * @param call the read
+   * @return the result of the read
+   */
+  private <T> T read(String operation, HedgedReader.Call<T> call) {
+    HedgedReader reader = this.hedgedReader;
+    if (reader == null) {
+      try {
+        long start = System.nanoTime();
+        T result = call.call(this.gateway, context());
+        readLatencies.record(operation, System.nanoTime() - start);
+        return result;
+      } catch (Exception exception) {
+        throw readFailure(exception);
+      }
+    }
+
+    try {
+      return reader.read(operation, this.gateway, context(), call);
+    } catch (ExecutionException executionException) {
+      throw readFailure(executionException.getCause());
+    } catch (TimeoutException timeoutException) {
+      throw new RuntimeException("Omero read " + operation + " did not complete in time.",
+          timeoutException);
+    } catch (RejectedExecutionException rejectedExecutionException) {
+      throw new RuntimeException("Omero read " + operation
+          + " was rejected, too many reads are in progress.", rejectedExecutionException);
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Omero read " + operation + " was interrupted.",
+          interruptedException);
+    }
+  }
+
+  private static RuntimeException readFailure(Throwable failure) {
+    if (failure instanceof RuntimeException) {
+      return (RuntimeException) failure;
+    } else if (failure instanceof DSOutOfServiceException) {
+      return new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          failure);
+    } else if (failure instanceof DSAccessException) {
+      return new RuntimeException("Could not pull data from the omero server.", failure);
+    } else if (failure instanceof ServerError) {
+      return new RuntimeException("Omero store interaction failed.", failure);
+    }
+    return new RuntimeException("Task aborted unexpectedly.", failure);
+  }
+
+  /**
+   * @param imageId the omero identifier of the image
+   * @return the image loaded through the BrowseFacility
+   */
+  private ImageData loadImage(long imageId) {
+    return read(HedgingPolicy.IMAGE,
+        (readGateway, context) -> readGateway.getFacility(BrowseFacility.class)
+            .getImage(context, imageId));
+  }
+
+  /**
+   * @return a new gateway joined to the session of this client
+   */
+  private Gateway joinSession() throws DSOutOfServiceException {
+    Gateway joined = new Gateway(new SimpleLogger());
+    joined.connect(new LoginCredentials(sessionUuid, "", this.hostname, this.port));
+    return joined;
+  }
+
+  /**
+   * Enables the coalescing of concurrent single image requests. Calls of {@link
+   * #getThumbnail(long, long)}, {@link #getImageInfo(long, long)}, {@link
+   * #fetchFileAnnotationDataForImage(long)} and {@link #fetchMapAnnotationDataForImage(long)} made
+   * by different threads within the window are answered with one batched server call per method.
+   * Each caller still blocks until its own result is available.
+   *
+   * <p>Coalesced requests look images up by their id only. Calls made within {@link
+   * #inGroup(SecurityContext, Supplier)} are not coalesced. The batched image and thumbnail loads
+   * are reads with the deadlines of {@link HedgingPolicy#IMAGE_BATCH} and {@link
+   * HedgingPolicy#THUMBNAIL_BATCH}, their latencies are tracked separately from single reads. The
+   * batched channel and annotation queries have no deadline.</p>
+   *
+   * @param windowMillis how long requests are collected before a batch is sent, a few
+   *     milliseconds are enough to collect concurrent requests
+   * @param maxBatchSize the number of collected requests after which a batch is sent immediately
+   * @since 1.4.0
+   */
+  public void enableRequestCoalescing(long windowMillis, int maxBatchSize) {
+    if (windowMillis <= 0 || maxBatchSize <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid coalescing window " + windowMillis + " ms or batch size " + maxBatchSize);
+    }
+    disableRequestCoalescing();
+    this.coalescing = new Coalescing(TimeUnit.MILLISECONDS.toNanos(windowMillis),
+        Math.min(maxBatchSize, QUERY_BATCH_SIZE));
+  }
+
+  /**
+   * Stops coalescing requests. Requests collected so far are still answered.
+   *
+   * @since 1.4.0
+   */
+  public void disableRequestCoalescing() {
+    Coalescing current = this.coalescing;
+    this.coalescing = null;
+    if (current != null) {
+      current.shutdown();
+    }
+  }
+
+  /**
+   * @return the request coalescing of this client, null if it is disabled or the current call is
+   *     routed to another group
+   */
+  private Coalescing coalescingOfContext() {
+    return groupContext.get() == null ? this.coalescing : null;
+  }
+
+  /**
+   * Waits for the result of a coalesced request
+   */
+  private static <V> V await(CompletableFuture<V> request) {
+    try {
+      return request.get();
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Waiting for a coalesced request was interrupted.",
+          interruptedException);
+    } catch (ExecutionException executionException) {
+      if (executionException.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) executionException.getCause();
+      }
+      throw new RuntimeException("Task aborted unexpectedly.", executionException);
+    }
+  }
+
+  /**
+   * @param imageIds the omero identifiers of the images
+   * @return the images found by image id
+   */
+  private Map<Long, ImageData> loadImagesById(Collection<Long> imageIds) {
+    Collection<ImageData> found = read(HedgingPolicy.IMAGE_BATCH,
+        (readGateway, context) -> readGateway.getFacility(BrowseFacility.class)
+            .getImages(context, imageIds));
+    Map<Long, ImageData> images = new HashMap<>();
+    for (ImageData image : found) {
+      images.put(image.getId(), image);
+    }
+    return images;
+  }
+
+  /**
+   * Batch loader of coalesced thumbnail requests
+   */
+  private Map<Long, byte[]> loadThumbnailsOfImages(Collection<Long> imageIds) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    Map<Long, ImageData> images = loadImagesById(imageIds);
+    List<Long> pixelsIds = new ArrayList<>(images.size());
+    for (ImageData image : images.values()) {
+      pixelsIds.add(image.getDefaultPixels().getId());
+    }
+    Map<Long, byte[]> thumbnailsOfPixels = read(HedgingPolicy.THUMBNAIL_BATCH,
+        (readGateway, context) -> loadThumbnails(readGateway, context, pixelsIds));
+    boolean cached = this.thumbnailWarmUp != null;
+
+    Map<Long, byte[]> thumbnails = new HashMap<>();
+    for (ImageData image : images.values()) {
+      byte[] thumbnail = thumbnailsOfPixels.get(image.getDefaultPixels().getId());
+      if (thumbnail != null) {
+        if (cached) {
+          thumbnailCache.put(image.getId(), thumbnail);
+        }
+        thumbnails.put(image.getId(), thumbnail);
+      }
+    }
+    return thumbnails;
+  }
+
+  /**
+   * Batch loader of coalesced image information requests
+   */
+  private Map<Long, HashMap<String, String>> loadImageInfoMaps(Collection<Long> imageIds) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    try {
+      Map<Long, ImageData> images = loadImagesById(imageIds);
+      Map<Long, List<String>> channelNames = loadChannelNames(images.values());
+
+      Map<Long, HashMap<String, String>> imageInfos = new HashMap<>();
+      for (ImageData image : images.values()) {
+        imageInfos.put(image.getId(), toImageInfoMap(image, channelNames
+            .getOrDefault(image.getDefaultPixels().getId(), Collections.emptyList())));
+      }
+      return imageInfos;
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ServerError serverError) {
+      throw new RuntimeException("Omero store interaction failed.", serverError);
+    }
+  }
+
+  /**
+   * Batch loader of coalesced annotation requests
+   *
+   * @param imageIds the omero identifiers of the images
+   * @param type the type of the annotations
+   * @return the annotations by image id
+   */
+  private Map<Long, List<AnnotationData>> loadAnnotationsForImages(Collection<Long> imageIds,
+      Class<? extends AnnotationData> type) {
+    // we need to be connected to OMERO otherwise the Gateway cannot retrieve information
+    if (!this.isConnected()) {
+      connect();
+    }
+
+    try {
+      List<ImageData> images = new ArrayList<>(loadImagesById(imageIds).values());
+      List<Class<? extends AnnotationData>> types = new ArrayList<>();
+      types.add(type);
+      MetadataFacility metadata = gateway.getFacility(MetadataFacility.class);
+      Map<DataObject, List<AnnotationData>> annotations =
+          metadata.getAnnotations(context(), images, types, null);
+
+      Map<Long, List<AnnotationData>> annotationsByImage = new HashMap<>();
+      for (Map.Entry<DataObject, List<AnnotationData>> imageAnnotations : annotations
+          .entrySet()) {
+        annotationsByImage.put(imageAnnotations.getKey().getId(), imageAnnotations.getValue());
+      }
+      for (ImageData image : images) {
+        annotationsByImage.putIfAbsent(image.getId(), new ArrayList<>());
+      }
+      return annotationsByImage;
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      throw new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException);
+    } catch (ExecutionException executionException) {
+      throw new RuntimeException("Task aborted unexpectedly.", executionException);
+    } catch (DSAccessException dsAccessException) {
+      throw new RuntimeException("Could not pull data from the omero server.", dsAccessException);
+    }
+  }
+
+  /**
+   * The request coalescers of a client and the threads sending their batches
+   */
+  private final class Coalescing {
+
+    private final ScheduledExecutorService timer = Executors
+        .newSingleThreadScheduledExecutor(new DaemonThreadFactory("omero-coalescing-timer"));
+    private final ExecutorService executor = Executors
+        .newFixedThreadPool(COALESCING_THREADS, new DaemonThreadFactory("omero-coalescing"));
+
+    private final RequestCoalescer<Long, byte[]> thumbnails;
+    private final RequestCoalescer<Long, HashMap<String, String>> imageInfos;
+    private final RequestCoalescer<Long, List<AnnotationData>> fileAnnotations;
+    private final RequestCoalescer<Long, List<AnnotationData>> mapAnnotations;
+
+    private Coalescing(long windowNanos, int maxBatchSize) {
+      thumbnails = new RequestCoalescer<>(BasicOMEROClient.this::loadThumbnailsOfImages,
+          windowNanos, maxBatchSize, timer, executor);
+      imageInfos = new RequestCoalescer<>(BasicOMEROClient.this::loadImageInfoMaps,
+          windowNanos, maxBatchSize, timer, executor);
+      fileAnnotations = new RequestCoalescer<>(
+          imageIds -> loadAnnotationsForImages(imageIds, FileAnnotationData.class),
+          windowNanos, maxBatchSize, timer, executor);
+      mapAnnotations = new RequestCoalescer<>(
+          imageIds -> loadAnnotationsForImages(imageIds, MapAnnotationData.class),
+          windowNanos, maxBatchSize, timer, executor);
+    }
+
+    private void shutdown() {
+      timer.shutdownNow();
+      thumbnails.flush();
+      imageInfos.flush();
+      fileAnnotations.flush();
+      mapAnnotations.flush();
+      executor.shutdown();
+    }
   }
 
   /**
@@ -0,0 +1,126 @@
+package life.qbic.omero;
+
+import java.util.Arrays;
+
+/**
+ * Pixel statistics of one channel of an image, computed by the OMERO server.
+ *
+ * <p>The global minimum and maximum are the stored statistics of the channel over all planes.
+ * The histogram, if present, counts the pixel values of a single plane in equally wide bins
+ * between the global minimum and maximum. Values are in the pixel type of the image, not in the
+ * 8-bit range of rendered planes.</p>
+ *
+ * @since 1.4.0
+ */
+public final class ChannelStatistics {
+
+  private static final int[] NO_HISTOGRAM = new int[0];
+
+  private final int channelIndex;
+  private final String name;
+  private final double globalMin;
+  private final double globalMax;
+  private final int[] histogram;
+  private final long pixelCount;
+
+  /**
+   * @param channelIndex the index of the channel in the image
+   * @param name the name of the channel
+   * @param globalMin the smallest pixel value of the channel
+   * @param globalMax the largest pixel value of the channel
+   * @param histogram the pixel counts per bin between the global minimum and maximum, empty if
+   *     no histogram was computed
+   */
+  public ChannelStatistics(int channelIndex, String name, double globalMin, double globalMax,
+      int[] histogram) {
+    this.channelIndex = channelIndex;
+    this.name = name;
+    this.globalMin = globalMin;
+    this.globalMax = globalMax;
+    this.histogram = histogram.length == 0 ? NO_HISTOGRAM : histogram.clone();
+    long count = 0;
+    for (int binCount : this.histogram) {
+      count += binCount;
+    }
+    this.pixelCount = count;
+  }
+
+  /**
+   * @param histogram the pixel counts per bin between the global minimum and maximum
+   * @return statistics of the same channel with the given histogram
+   */
+  ChannelStatistics withHistogram(int[] histogram) {
+    return new ChannelStatistics(channelIndex, name, globalMin, globalMax, histogram);
+  }
+
+  public int getChannelIndex() {
+    return channelIndex;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public double getGlobalMin() {
+    return globalMin;
+  }
+
+  public double getGlobalMax() {
+    return globalMax;
+  }
+
+  /**
+   * @return true if a histogram of a plane was computed
+   */
+  public boolean hasHistogram() {
+    return histogram.length > 0;
+  }
+
+  /**
+   * @return a copy of the pixel counts per bin, empty if no histogram was computed
+   */
+  public int[] getHistogram() {
+    return histogram.clone();
+  }
+
+  /**
+   * @return the width of a histogram bin in pixel values, 0 if no histogram was computed
+   */
+  public double getBinWidth() {
+    return histogram.length == 0 ? 0 : (globalMax - globalMin) / histogram.length;
+  }
+
+  /**
+   * Estimates the pixel value below which the given fraction of the pixels of the plane lies,
+   * interpolating linearly within histogram bins. Without histogram, the value is interpolated
+   * between the global minimum and maximum.
+   *
+   * @param fraction the fraction of pixels between 0 and 1
+   * @return the estimated pixel value
+   */
+  public double getQuantile(double fraction) {
+    if (fraction < 0 || fraction > 1) {
+      throw new IllegalArgumentException("Invalid fraction " + fraction);
+    }
+    if (pixelCount == 0) {
+      return globalMin + fraction * (globalMax - globalMin);
+    }
+    double target = fraction * pixelCount;
+    double binWidth = getBinWidth();
+    long counted = 0;
+    for (int bin = 0; bin < histogram.length; bin++) {
+      if (histogram[bin] > 0 && counted + histogram[bin] >= target) {
+        return globalMin + (bin + (target - counted) / histogram[bin]) * binWidth;
+      }
+      counted += histogram[bin];
+    }
+    return globalMax;
+  }
+
+  @Override
+  public String toString() {
+    return "ChannelStatistics{channel=" + channelIndex + ", name=" + name + ", globalMin="
+        + globalMin + ", globalMax=" + globalMax + ", histogram=" + Arrays.toString(histogram)
+        + '}';
+  }
+}
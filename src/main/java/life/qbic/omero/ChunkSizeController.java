@@ -0,0 +1,126 @@
+package life.qbic.omero;
+
+/**
+ * Chooses the chunk size of a data transfer from the measured round trip time and throughput.
+ *
+ * <p>The controller climbs towards the chunk size with the best throughput: after a few chunks at
+ * the current size, the chunk size is doubled or halved, keeping the direction as long as the
+ * throughput improves and reversing it when the throughput drops. Chunks that take longer than
+ * {@link #MAX_CHUNK_NANOS} always shrink the chunk size, which keeps retries cheap on slow links.
+ * The chunk size never leaves the configured limits.</p>
+ *
+ * <p>A controller belongs to a single transfer and is not thread safe.</p>
+ *
+ * @since 1.4.0
+ */
+final class ChunkSizeController {
+
+  // number of chunks measured before the chunk size is changed
+  private static final int SAMPLES_PER_STEP = 3;
+  // relative change of throughput that is considered an improvement or a regression
+  private static final double THROUGHPUT_TOLERANCE = 0.05;
+  private static final long MAX_CHUNK_NANOS = 2_000_000_000L;
+
+  private final String operation;
+  private final TransferMetrics metrics;
+  private final int minChunkSize;
+  private final int maxChunkSize;
+
+  private int chunkSize;
+  private int direction = 1;
+  private double previousThroughput;
+  private int samples;
+  private long sampledBytes;
+  private long sampledNanos;
+
+  /**
+   * @param operation the transfer operation the chunk sizes are reported for
+   * @param metrics receives the chosen chunk sizes and measured throughput
+   * @param initialChunkSize the chunk size of the first chunk
+   * @param minChunkSize the smallest chunk size
+   * @param maxChunkSize the largest chunk size
+   */
+  ChunkSizeController(String operation, TransferMetrics metrics, int initialChunkSize,
+      int minChunkSize, int maxChunkSize) {
+    if (minChunkSize <= 0 || minChunkSize > maxChunkSize) {
+      throw new IllegalArgumentException(
+          "Invalid chunk size limits " + minChunkSize + " - " + maxChunkSize);
+    }
+    this.operation = operation;
+    this.metrics = metrics;
+    this.minChunkSize = minChunkSize;
+    this.maxChunkSize = maxChunkSize;
+    this.chunkSize = clamp(initialChunkSize);
+  }
+
+  /**
+   * @return the size of the next chunk
+   */
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * @return the largest chunk size this controller chooses
+   */
+  int getMaxChunkSize() {
+    return maxChunkSize;
+  }
+
+  /**
+   * Records a transferred chunk and adapts the chunk size.
+   *
+   * @param requestedBytes the chunk size requested for the chunk
+   * @param transferredBytes the number of bytes actually transferred
+   * @param nanos the round trip time of the chunk in nanoseconds
+   */
+  void record(int requestedBytes, int transferredBytes, long nanos) {
+    metrics.record(operation, requestedBytes, transferredBytes, nanos);
+    if (transferredBytes <= 0 || nanos <= 0) {
+      return;
+    }
+
+    if (nanos > MAX_CHUNK_NANOS && chunkSize > minChunkSize) {
+      step(-1, 0);
+      return;
+    }
+
+    samples++;
+    sampledBytes += transferredBytes;
+    sampledNanos += nanos;
+    if (samples < SAMPLES_PER_STEP) {
+      return;
+    }
+
+    double throughput = sampledBytes * 1e9 / sampledNanos;
+    if (previousThroughput > 0) {
+      if (throughput < previousThroughput * (1 - THROUGHPUT_TOLERANCE)) {
+        direction = -direction;
+      } else if (throughput < previousThroughput * (1 + THROUGHPUT_TOLERANCE)) {
+        // no significant change, stay at the current chunk size
+        resetSamples();
+        previousThroughput = throughput;
+        return;
+      }
+    }
+    step(direction, throughput);
+  }
+
+  private void step(int stepDirection, double throughput) {
+    direction = stepDirection;
+    chunkSize = clamp(stepDirection > 0 ? (int) Math.min((long) chunkSize * 2, Integer.MAX_VALUE)
+        : chunkSize / 2);
+    previousThroughput = throughput;
+    resetSamples();
+  }
+
+  private void resetSamples() {
+    samples = 0;
+    sampledBytes = 0;
+    sampledNanos = 0;
+  }
+
+  private int clamp(int size) {
+    return Math.max(minChunkSize, Math.min(maxChunkSize, size));
+  }
+}
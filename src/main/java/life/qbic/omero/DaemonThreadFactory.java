@@ -0,0 +1,41 @@
+package life.qbic.omero;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the background work of the client, so that pending background
+ * tasks never keep the JVM alive.
+ *
+ * @since 1.4.0
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+
+  private final String namePrefix;
+  private final int priority;
+  private final AtomicInteger threadCount = new AtomicInteger();
+
+  /**
+   * @param namePrefix the prefix of the thread names, followed by a running number
+   */
+  DaemonThreadFactory(String namePrefix) {
+    this(namePrefix, Thread.NORM_PRIORITY);
+  }
+
+  /**
+   * @param namePrefix the prefix of the thread names, followed by a running number
+   * @param priority the priority of the created threads
+   */
+  DaemonThreadFactory(String namePrefix, int priority) {
+    this.namePrefix = namePrefix;
+    this.priority = priority;
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+    thread.setDaemon(true);
+    thread.setPriority(priority);
+    return thread;
+  }
+}
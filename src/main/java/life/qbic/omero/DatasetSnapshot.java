@@ -0,0 +1,314 @@
+package life.qbic.omero;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable and memory compact listing of the images of a dataset.
+ *
+ * <p>Image ids and pixel dimensions are held in primitive arrays, all names, descriptions and
+ * channel names of the images are packed into a single string table. Looking up an image by its
+ * id takes constant time and does not box the id.</p>
+ *
+ * <p>Images are addressed by their position in the snapshot, which ranges from 0 to
+ * {@link #size()} - 1. Use {@link #indexOf(long)} to find the position of an image id.</p>
+ *
+ * @since 1.4.0
+ */
+public final class DatasetSnapshot {
+
+  // every image owns a name and a description entry, followed by one entry per channel
+  private static final int NAME_ENTRY = 0;
+  private static final int DESCRIPTION_ENTRY = 1;
+  private static final int FIRST_CHANNEL_ENTRY = 2;
+
+  private final long datasetId;
+  private final int size;
+  private final long[] imageIds;
+  private final int[] sizeX;
+  private final int[] sizeY;
+  private final int[] sizeZ;
+  private final int[] sizeT;
+  private final int[] sizeC;
+
+  private final String stringTable;
+  // entry k of the string table spans from entryBounds[k] to entryBounds[k + 1]
+  private final int[] entryBounds;
+  // the entries of image i range from firstEntry[i] to firstEntry[i + 1]
+  private final int[] firstEntry;
+
+  private final LongIntIndex index;
+
+  private DatasetSnapshot(Builder builder) {
+    this.datasetId = builder.datasetId;
+    this.size = builder.size;
+    this.imageIds = Arrays.copyOf(builder.imageIds, size);
+    this.sizeX = Arrays.copyOf(builder.sizeX, size);
+    this.sizeY = Arrays.copyOf(builder.sizeY, size);
+    this.sizeZ = Arrays.copyOf(builder.sizeZ, size);
+    this.sizeT = Arrays.copyOf(builder.sizeT, size);
+    this.sizeC = Arrays.copyOf(builder.sizeC, size);
+    this.stringTable = builder.stringTable.toString();
+    this.entryBounds = Arrays.copyOf(builder.entryBounds, builder.entryCount + 1);
+    this.firstEntry = Arrays.copyOf(builder.firstEntry, size + 1);
+    this.index = new LongIntIndex(imageIds, size);
+  }
+
+  /**
+   * Creates a builder for a snapshot of the given dataset.
+   *
+   * @param datasetId the omero identifier of the dataset
+   * @param expectedImages the number of images expected to be added, used to size the buffers
+   * @return a new builder
+   */
+  public static Builder builder(long datasetId, int expectedImages) {
+    return new Builder(datasetId, expectedImages);
+  }
+
+  /**
+   * @return the omero identifier of the dataset this snapshot was taken of
+   */
+  public long getDatasetId() {
+    return datasetId;
+  }
+
+  /**
+   * @return the number of images in this snapshot
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Finds the position of an image in this snapshot.
+   *
+   * @param imageId the omero identifier of the image
+   * @return the position of the image or -1 if the image is not part of this snapshot
+   */
+  public int indexOf(long imageId) {
+    return index.get(imageId);
+  }
+
+  /**
+   * @param imageId the omero identifier of the image
+   * @return true if the image is part of this snapshot, false otherwise
+   */
+  public boolean contains(long imageId) {
+    return index.get(imageId) >= 0;
+  }
+
+  /**
+   * @return a copy of the image identifiers in snapshot order
+   */
+  public long[] getImageIds() {
+    return Arrays.copyOf(imageIds, size);
+  }
+
+  public long getImageId(int position) {
+    checkPosition(position);
+    return imageIds[position];
+  }
+
+  public String getName(int position) {
+    checkPosition(position);
+    return entry(firstEntry[position] + NAME_ENTRY);
+  }
+
+  public String getDescription(int position) {
+    checkPosition(position);
+    return entry(firstEntry[position] + DESCRIPTION_ENTRY);
+  }
+
+  /**
+   * @param position the position of the image
+   * @return the number of pixels along the X-axis
+   */
+  public int getSizeX(int position) {
+    checkPosition(position);
+    return sizeX[position];
+  }
+
+  /**
+   * @param position the position of the image
+   * @return the number of pixels along the Y-axis
+   */
+  public int getSizeY(int position) {
+    checkPosition(position);
+    return sizeY[position];
+  }
+
+  /**
+   * @param position the position of the image
+   * @return the number of z-sections
+   */
+  public int getSizeZ(int position) {
+    checkPosition(position);
+    return sizeZ[position];
+  }
+
+  /**
+   * @param position the position of the image
+   * @return the number of timepoints
+   */
+  public int getSizeT(int position) {
+    checkPosition(position);
+    return sizeT[position];
+  }
+
+  /**
+   * @param position the position of the image
+   * @return the number of channels
+   */
+  public int getSizeC(int position) {
+    checkPosition(position);
+    return sizeC[position];
+  }
+
+  /**
+   * @param position the position of the image
+   * @return the number of channel names known for the image
+   */
+  public int getChannelCount(int position) {
+    checkPosition(position);
+    return firstEntry[position + 1] - firstEntry[position] - FIRST_CHANNEL_ENTRY;
+  }
+
+  public String getChannelName(int position, int channel) {
+    if (channel < 0 || channel >= getChannelCount(position)) {
+      throw new IndexOutOfBoundsException("No channel " + channel + " for image at " + position);
+    }
+    return entry(firstEntry[position] + FIRST_CHANNEL_ENTRY + channel);
+  }
+
+  /**
+   * @param position the position of the image
+   * @return the channel names of the image in channel order
+   */
+  public List<String> getChannelNames(int position) {
+    int channelCount = getChannelCount(position);
+    List<String> channelNames = new ArrayList<>(channelCount);
+    for (int channel = 0; channel < channelCount; channel++) {
+      channelNames.add(entry(firstEntry[position] + FIRST_CHANNEL_ENTRY + channel));
+    }
+    return Collections.unmodifiableList(channelNames);
+  }
+
+  private String entry(int entry) {
+    return stringTable.substring(entryBounds[entry], entryBounds[entry + 1]);
+  }
+
+  private void checkPosition(int position) {
+    if (position < 0 || position >= size) {
+      throw new IndexOutOfBoundsException(
+          "Position " + position + " is not within snapshot of size " + size);
+    }
+  }
+
+  /**
+   * Collects the images of a dataset in one pass and creates a {@link DatasetSnapshot}.
+   *
+   * <p>Builders are not thread safe.</p>
+   *
+   * @since 1.4.0
+   */
+  public static final class Builder {
+
+    private final long datasetId;
+    private int size;
+    private long[] imageIds;
+    private int[] sizeX;
+    private int[] sizeY;
+    private int[] sizeZ;
+    private int[] sizeT;
+    private int[] sizeC;
+
+    private final StringBuilder stringTable;
+    private int entryCount;
+    private int[] entryBounds;
+    private int[] firstEntry;
+
+    private Builder(long datasetId, int expectedImages) {
+      int capacity = Math.max(1, expectedImages);
+      this.datasetId = datasetId;
+      this.imageIds = new long[capacity];
+      this.sizeX = new int[capacity];
+      this.sizeY = new int[capacity];
+      this.sizeZ = new int[capacity];
+      this.sizeT = new int[capacity];
+      this.sizeC = new int[capacity];
+      this.stringTable = new StringBuilder(capacity * 32);
+      this.entryBounds = new int[capacity * 4 + 1];
+      this.firstEntry = new int[capacity + 1];
+    }
+
+    /**
+     * Adds an image to the snapshot. Missing names and descriptions are stored as empty strings.
+     *
+     * @param imageId the omero identifier of the image
+     * @param name the name of the image
+     * @param description the description of the image
+     * @param sizeX the number of pixels along the X-axis
+     * @param sizeY the number of pixels along the Y-axis
+     * @param sizeZ the number of z-sections
+     * @param sizeT the number of timepoints
+     * @param sizeC the number of channels
+     * @param channelNames the names of the channels in channel order
+     * @return this builder
+     */
+    public Builder addImage(long imageId, String name, String description, int sizeX, int sizeY,
+        int sizeZ, int sizeT, int sizeC, Collection<String> channelNames) {
+      if (size == imageIds.length) {
+        growImages();
+      }
+      imageIds[size] = imageId;
+      this.sizeX[size] = sizeX;
+      this.sizeY[size] = sizeY;
+      this.sizeZ[size] = sizeZ;
+      this.sizeT[size] = sizeT;
+      this.sizeC[size] = sizeC;
+      firstEntry[size] = entryCount;
+
+      addEntry(name);
+      addEntry(description);
+      for (String channelName : channelNames) {
+        addEntry(channelName);
+      }
+
+      size++;
+      firstEntry[size] = entryCount;
+      return this;
+    }
+
+    /**
+     * @return a new snapshot containing all images added so far
+     */
+    public DatasetSnapshot build() {
+      return new DatasetSnapshot(this);
+    }
+
+    private void addEntry(String value) {
+      if (entryCount + 1 == entryBounds.length) {
+        entryBounds = Arrays.copyOf(entryBounds, entryBounds.length * 2);
+      }
+      if (value != null) {
+        stringTable.append(value);
+      }
+      entryCount++;
+      entryBounds[entryCount] = stringTable.length();
+    }
+
+    private void growImages() {
+      int capacity = imageIds.length * 2;
+      imageIds = Arrays.copyOf(imageIds, capacity);
+      sizeX = Arrays.copyOf(sizeX, capacity);
+      sizeY = Arrays.copyOf(sizeY, capacity);
+      sizeZ = Arrays.copyOf(sizeZ, capacity);
+      sizeT = Arrays.copyOf(sizeT, capacity);
+      sizeC = Arrays.copyOf(sizeC, capacity);
+      firstEntry = Arrays.copyOf(firstEntry, capacity + 1);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package life.qbic.omero;
+
+import java.io.File;
+
+/**
+ * A local file to be attached as file annotation to a project, dataset or image.
+ *
+ * @since 1.4.0
+ */
+public final class FileAttachment {
+
+  /**
+   * The mimetype used for attachments that do not specify one
+   */
+  public static final String DEFAULT_MIMETYPE = "application/octet-stream";
+
+  private final Kind targetKind;
+  private final long targetId;
+  private final File file;
+  private final String mimetype;
+
+  /**
+   * @param targetKind the kind of object the file is attached to
+   * @param targetId the omero identifier of the object the file is attached to
+   * @param file the file to attach
+   * @param mimetype the mimetype stored with the file, {@link #DEFAULT_MIMETYPE} if null
+   */
+  public FileAttachment(Kind targetKind, long targetId, File file, String mimetype) {
+    this.targetKind = targetKind;
+    this.targetId = targetId;
+    this.file = file;
+    this.mimetype = mimetype != null ? mimetype : DEFAULT_MIMETYPE;
+  }
+
+  /**
+   * @param imageId the omero identifier of the image the file is attached to
+   * @param file the file to attach
+   * @return an attachment of the file to the image
+   */
+  public static FileAttachment toImage(long imageId, File file) {
+    return new FileAttachment(Kind.IMAGE, imageId, file, null);
+  }
+
+  public Kind getTargetKind() {
+    return targetKind;
+  }
+
+  public long getTargetId() {
+    return targetId;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public String getMimetype() {
+    return mimetype;
+  }
+
+  @Override
+  public String toString() {
+    return file.getName() + " -> " + targetKind + ":" + targetId;
+  }
+}
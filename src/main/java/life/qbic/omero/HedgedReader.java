@@ -0,0 +1,202 @@
+package life.qbic.omero;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import omero.gateway.Gateway;
+import omero.gateway.SecurityContext;
+import omero.gateway.exception.DSOutOfServiceException;
+
+/**
+ * Runs idempotent reads with a deadline and hedges slow reads with a second request through a
+ * pooled session.
+ *
+ * <p>A read is first sent through the gateway of the client. If it has not completed after the
+ * configured percentile of the recent latencies of its operation, the same read is sent through
+ * one of the hedging gateways, which are joined to the session of the client. The first
+ * successful result is returned, the read fails only if all requests failed or the deadline has
+ * passed. No hedge is sent while all hedging gateways are busy. The slower request is not
+ * interrupted, as interrupting Ice calls can close the connection shared by other requests; it
+ * completes in the background and its gateway returns to the pool.</p>
+ *
+ * <p>Every request runs on its own thread, the number of threads is bounded by {@link
+ * HedgingPolicy#getMaxConcurrentReads()}. Requests completing in the background count towards
+ * this bound. Once it is reached, new reads are rejected and no hedges are sent.</p>
+ *
+ * @since 1.4.0
+ */
+final class HedgedReader {
+
+  /**
+   * A read that can be sent through any gateway of the session
+   *
+   * @param <T> the type of the result
+   */
+  interface Call<T> {
+
+    T call(Gateway gateway, SecurityContext context) throws Exception;
+  }
+
+  /**
+   * Joins a new gateway to the session of the client
+   */
+  interface GatewayFactory {
+
+    Gateway join() throws DSOutOfServiceException;
+  }
+
+  private final HedgingPolicy policy;
+  private final LatencyTracker latencies;
+  private final GatewayFactory gatewayFactory;
+  private final ThreadPoolExecutor executor;
+  private final BlockingQueue<Gateway> idleGateways = new LinkedBlockingQueue<>();
+  private final AtomicInteger joinedGateways = new AtomicInteger();
+
+  /**
+   * @param policy the deadlines and hedging configuration
+   * @param latencies records the latencies of the reads and provides the hedging delays
+   * @param gatewayFactory joins the hedging gateways to the session, they are joined on first use
+   */
+  HedgedReader(HedgingPolicy policy, LatencyTracker latencies, GatewayFactory gatewayFactory) {
+    this.policy = policy;
+    this.latencies = latencies;
+    this.gatewayFactory = gatewayFactory;
+    this.executor = new ThreadPoolExecutor(0, policy.getMaxConcurrentReads(), 60L,
+        TimeUnit.SECONDS, new SynchronousQueue<>(), new DaemonThreadFactory("omero-hedged-read"));
+  }
+
+  /**
+   * Runs a read with the deadline of its operation.
+   *
+   * @param operation the read operation
+   * @param gateway the gateway of the client
+   * @param context the security context of the read
+   * @param call the read
+   * @param <T> the type of the result
+   * @return the first successful result
+   * @throws ExecutionException with the failure of the read if no request succeeded
+   * @throws TimeoutException if no request succeeded before the deadline
+   * @throws InterruptedException if the calling thread was interrupted while waiting
+   * @throws RejectedExecutionException if the maximum number of concurrent requests is reached
+   */
+  <T> T read(String operation, Gateway gateway, SecurityContext context, Call<T> call)
+      throws ExecutionException, TimeoutException, InterruptedException {
+    long start = System.nanoTime();
+    long deadline = start + policy.getDeadlineNanos(operation);
+    CompletableFuture<T> result = new CompletableFuture<>();
+    AtomicInteger running = new AtomicInteger(1);
+
+    executor.execute(() -> attempt(operation, gateway, context, call, result, running, null));
+    long hedgeAt = start + hedgeDelayNanos(operation);
+    if (hedgeAt - deadline < 0) {
+      try {
+        return result.get(hedgeAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException slow) {
+        hedge(operation, context, call, result, running);
+      }
+    }
+    return result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Disconnects the idle hedging gateways, e.g. because the session they joined was closed. New
+   * gateways are joined on demand.
+   */
+  void closeSessions() {
+    Gateway gateway;
+    while ((gateway = idleGateways.poll()) != null) {
+      joinedGateways.decrementAndGet();
+      gateway.disconnect();
+    }
+  }
+
+  /**
+   * Stops accepting reads and disconnects the hedging gateways. Gateways still busy with a request
+   * are disconnected when the request completes.
+   */
+  void close() {
+    executor.shutdown();
+    closeSessions();
+  }
+
+  /**
+   * @return the time after which a read of the operation is hedged, longer than any deadline if
+   *     the read is not hedged
+   */
+  private long hedgeDelayNanos(String operation) {
+    if (policy.getHedgingSessions() == 0
+        || latencies.getSampleCount(operation) < policy.getMinSamples()) {
+      return Long.MAX_VALUE / 2;
+    }
+    return Math.max(policy.getMinHedgeDelayNanos(),
+        latencies.getPercentile(operation, policy.getHedgePercentile()));
+  }
+
+  private <T> void hedge(String operation, SecurityContext context, Call<T> call,
+      CompletableFuture<T> result, AtomicInteger running) {
+    Gateway gateway = idleGateways.poll();
+    if (gateway == null) {
+      if (joinedGateways.incrementAndGet() > policy.getHedgingSessions()) {
+        joinedGateways.decrementAndGet();
+        return;
+      }
+      try {
+        gateway = gatewayFactory.join();
+      } catch (DSOutOfServiceException | RuntimeException joinFailed) {
+        // hedging is best effort, the primary request is still running
+        joinedGateways.decrementAndGet();
+        return;
+      }
+    }
+    running.incrementAndGet();
+    Gateway hedgingGateway = gateway;
+    try {
+      executor.execute(
+          () -> attempt(operation, hedgingGateway, context, call, result, running, hedgingGateway));
+    } catch (RejectedExecutionException rejected) {
+      // too many requests in progress, the read is left to the primary request
+      release(hedgingGateway, true);
+      if (running.decrementAndGet() == 0) {
+        result.completeExceptionally(rejected);
+      }
+    }
+  }
+
+  private <T> void attempt(String operation, Gateway gateway, SecurityContext context,
+      Call<T> call, CompletableFuture<T> result, AtomicInteger running, Gateway pooled) {
+    long start = System.nanoTime();
+    boolean gatewayUsable = true;
+    try {
+      T value = call.call(gateway, context);
+      latencies.record(operation, System.nanoTime() - start);
+      result.complete(value);
+    } catch (Exception exception) {
+      gatewayUsable = !(exception instanceof DSOutOfServiceException);
+      if (running.decrementAndGet() == 0) {
+        result.completeExceptionally(exception);
+      }
+      return;
+    } finally {
+      if (pooled != null) {
+        release(pooled, gatewayUsable);
+      }
+    }
+    running.decrementAndGet();
+  }
+
+  private void release(Gateway gateway, boolean usable) {
+    if (usable && !executor.isShutdown() && gateway.isConnected()) {
+      idleGateways.offer(gateway);
+    } else {
+      joinedGateways.decrementAndGet();
+      gateway.disconnect();
+    }
+  }
+}
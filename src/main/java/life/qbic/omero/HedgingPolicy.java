@@ -0,0 +1,216 @@
+package life.qbic.omero;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadlines and hedging of the idempotent reads of a {@link BasicOMEROClient}.
+ *
+ * <p>Every read fails once its deadline has passed. If a read takes longer than the configured
+ * percentile of the recent latencies of its operation, a second identical request is sent through
+ * another session joined to the session of the client and the first result wins. Without hedging
+ * sessions, only the deadlines apply.</p>
+ *
+ * <pre>{@code
+ * HedgingPolicy policy = HedgingPolicy.builder()
+ *     .deadline(HedgingPolicy.THUMBNAIL, 2000)
+ *     .hedgePercentile(0.95)
+ *     .hedgingSessions(2)
+ *     .build();
+ * }</pre>
+ *
+ * @since 1.4.0
+ */
+public final class HedgingPolicy {
+
+  /**
+   * Loading thumbnails from the ThumbnailStore
+   */
+  public static final String THUMBNAIL = "thumbnail";
+  /**
+   * Loading single images through the BrowseFacility
+   */
+  public static final String IMAGE = "image";
+  /**
+   * Loading the images of coalesced requests with one BrowseFacility call
+   */
+  public static final String IMAGE_BATCH = "image-batch";
+  /**
+   * Loading the thumbnails of coalesced requests with one ThumbnailStore call
+   */
+  public static final String THUMBNAIL_BATCH = "thumbnail-batch";
+
+  private final long defaultDeadlineNanos;
+  private final Map<String, Long> deadlineNanos;
+  private final double hedgePercentile;
+  private final long minHedgeDelayNanos;
+  private final int minSamples;
+  private final int hedgingSessions;
+  private final int maxConcurrentReads;
+
+  private HedgingPolicy(Builder builder) {
+    this.defaultDeadlineNanos = builder.defaultDeadlineNanos;
+    this.deadlineNanos = Collections.unmodifiableMap(new HashMap<>(builder.deadlineNanos));
+    this.hedgePercentile = builder.hedgePercentile;
+    this.minHedgeDelayNanos = builder.minHedgeDelayNanos;
+    this.minSamples = builder.minSamples;
+    this.hedgingSessions = builder.hedgingSessions;
+    this.maxConcurrentReads = builder.maxConcurrentReads;
+  }
+
+  /**
+   * @return a builder with a deadline of 30 seconds, hedging at the 95th percentile after at
+   *     least 50 ms, one hedging session and at most 64 concurrent requests
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @param operation the read operation
+   * @return the deadline of the operation in nanoseconds
+   */
+  public long getDeadlineNanos(String operation) {
+    return deadlineNanos.getOrDefault(operation, defaultDeadlineNanos);
+  }
+
+  /**
+   * @return the percentile of recent latencies after which a read is hedged
+   */
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  /**
+   * @return the shortest time in nanoseconds a read runs before it is hedged
+   */
+  public long getMinHedgeDelayNanos() {
+    return minHedgeDelayNanos;
+  }
+
+  /**
+   * @return the number of latencies recorded for an operation before its reads are hedged
+   */
+  public int getMinSamples() {
+    return minSamples;
+  }
+
+  /**
+   * @return the number of additional sessions hedged requests are sent through
+   */
+  public int getHedgingSessions() {
+    return hedgingSessions;
+  }
+
+  /**
+   * @return the maximum number of requests in progress at the same time, including hedges and
+   *     requests still running after their deadline
+   */
+  public int getMaxConcurrentReads() {
+    return maxConcurrentReads;
+  }
+
+  public static final class Builder {
+
+    private long defaultDeadlineNanos = TimeUnit.SECONDS.toNanos(30);
+    private final Map<String, Long> deadlineNanos = new HashMap<>();
+    private double hedgePercentile = 0.95;
+    private long minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(50);
+    private int minSamples = 20;
+    private int hedgingSessions = 1;
+    private int maxConcurrentReads = 64;
+
+    private Builder() {
+    }
+
+    /**
+     * @param millis the deadline of operations without their own deadline
+     * @return this builder
+     */
+    public Builder defaultDeadline(long millis) {
+      this.defaultDeadlineNanos = positiveMillisToNanos(millis);
+      return this;
+    }
+
+    /**
+     * @param operation the read operation, e.g. {@link #THUMBNAIL}
+     * @param millis the deadline of the operation
+     * @return this builder
+     */
+    public Builder deadline(String operation, long millis) {
+      this.deadlineNanos.put(operation, positiveMillisToNanos(millis));
+      return this;
+    }
+
+    /**
+     * @param percentile the percentile of recent latencies, between 0 and 1, after which a read
+     *     is hedged
+     * @return this builder
+     */
+    public Builder hedgePercentile(double percentile) {
+      if (percentile <= 0 || percentile > 1) {
+        throw new IllegalArgumentException("Invalid percentile " + percentile);
+      }
+      this.hedgePercentile = percentile;
+      return this;
+    }
+
+    /**
+     * @param millis the shortest time a read runs before it is hedged
+     * @return this builder
+     */
+    public Builder minHedgeDelay(long millis) {
+      this.minHedgeDelayNanos = positiveMillisToNanos(millis);
+      return this;
+    }
+
+    /**
+     * @param samples the number of latencies recorded for an operation before its reads are
+     *     hedged
+     * @return this builder
+     */
+    public Builder minSamples(int samples) {
+      this.minSamples = Math.max(1, samples);
+      return this;
+    }
+
+    /**
+     * @param sessions the number of additional sessions hedged requests are sent through, 0
+     *     disables hedging and only applies the deadlines
+     * @return this builder
+     */
+    public Builder hedgingSessions(int sessions) {
+      if (sessions < 0) {
+        throw new IllegalArgumentException("Invalid number of sessions " + sessions);
+      }
+      this.hedgingSessions = sessions;
+      return this;
+    }
+
+    /**
+     * @param reads the maximum number of requests in progress at the same time, further reads
+     *     are rejected and further hedges are not sent
+     * @return this builder
+     */
+    public Builder maxConcurrentReads(int reads) {
+      if (reads <= 0) {
+        throw new IllegalArgumentException("Invalid number of reads " + reads);
+      }
+      this.maxConcurrentReads = reads;
+      return this;
+    }
+
+    public HedgingPolicy build() {
+      return new HedgingPolicy(this);
+    }
+
+    private static long positiveMillisToNanos(long millis) {
+      if (millis <= 0) {
+        throw new IllegalArgumentException("Invalid duration " + millis + " ms");
+      }
+      return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package life.qbic.omero;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Basic information about an image: its name, description, pixel dimensions and channel names.
+ *
+ * @since 1.4.0
+ */
+public final class ImageInfo {
+
+  private final long imageId;
+  private final long pixelsId;
+  private final String name;
+  private final String description;
+  private final int sizeX;
+  private final int sizeY;
+  private final int sizeZ;
+  private final int sizeT;
+  private final int sizeC;
+  private final List<String> channelNames;
+
+  ImageInfo(long imageId, long pixelsId, String name, String description, int sizeX, int sizeY,
+      int sizeZ, int sizeT, int sizeC, List<String> channelNames) {
+    this.imageId = imageId;
+    this.pixelsId = pixelsId;
+    this.name = name;
+    this.description = description;
+    this.sizeX = sizeX;
+    this.sizeY = sizeY;
+    this.sizeZ = sizeZ;
+    this.sizeT = sizeT;
+    this.sizeC = sizeC;
+    this.channelNames = Collections.unmodifiableList(new ArrayList<>(channelNames));
+  }
+
+  public long getImageId() {
+    return imageId;
+  }
+
+  /**
+   * @return the omero identifier of the default pixels of the image
+   */
+  public long getPixelsId() {
+    return pixelsId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * @return the number of pixels along the X-axis
+   */
+  public int getSizeX() {
+    return sizeX;
+  }
+
+  /**
+   * @return the number of pixels along the Y-axis
+   */
+  public int getSizeY() {
+    return sizeY;
+  }
+
+  /**
+   * @return the number of z-sections
+   */
+  public int getSizeZ() {
+    return sizeZ;
+  }
+
+  /**
+   * @return the number of timepoints
+   */
+  public int getSizeT() {
+    return sizeT;
+  }
+
+  /**
+   * @return the number of channels
+   */
+  public int getSizeC() {
+    return sizeC;
+  }
+
+  /**
+   * @return the channel names in channel order
+   */
+  public List<String> getChannelNames() {
+    return channelNames;
+  }
+
+  @Override
+  public String toString() {
+    return "ImageInfo{imageId=" + imageId + ", name='" + name + "', size=" + sizeX + " x " + sizeY
+        + " x " + sizeZ + ", tps=" + sizeT + ", channels=" + channelNames + "}";
+  }
+}
@@ -0,0 +1,10 @@
+package life.qbic.omero;
+
+/**
+ * The kinds of OMERO objects in the project, dataset and image hierarchy
+ *
+ * @since 1.4.0
+ */
+public enum Kind {
+  PROJECT, DATASET, IMAGE
+}
@@ -0,0 +1,126 @@
+package life.qbic.omero;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the latencies of the most recent requests per operation and computes their percentiles.
+ *
+ * <p>Every operation keeps a fixed size window of samples, older samples are overwritten, so the
+ * percentiles follow the current load of the server. Percentiles are computed from a sorted copy
+ * of the window, which is refreshed once a twentieth of the kept samples was recorded after the
+ * last copy, so reading a percentile does not sort the window every time. All methods are thread
+ * safe.</p>
+ *
+ * @since 1.4.0
+ */
+public class LatencyTracker {
+
+  private final int windowSize;
+  private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+  /**
+   * @param windowSize the number of most recent latencies kept per operation
+   */
+  public LatencyTracker(int windowSize) {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("Invalid window size " + windowSize);
+    }
+    this.windowSize = windowSize;
+  }
+
+  /**
+   * Records the latency of a completed request.
+   *
+   * @param operation the operation of the request
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(String operation, long nanos) {
+    windows.computeIfAbsent(operation, key -> new Window(windowSize)).record(nanos);
+  }
+
+  /**
+   * @return the operations for which latencies were recorded
+   */
+  public Set<String> getOperations() {
+    return Collections.unmodifiableSet(windows.keySet());
+  }
+
+  /**
+   * @param operation the operation
+   * @return the number of latencies currently kept for the operation
+   */
+  public int getSampleCount(String operation) {
+    Window window = windows.get(operation);
+    return window == null ? 0 : window.size();
+  }
+
+  /**
+   * @param operation the operation
+   * @param percentile the percentile between 0 and 1, e.g. 0.99
+   * @return the latency in nanoseconds below which the given share of the kept latencies lies, -1
+   *     if no latency was recorded
+   */
+  public long getPercentile(String operation, double percentile) {
+    if (percentile < 0 || percentile > 1) {
+      throw new IllegalArgumentException("Invalid percentile " + percentile);
+    }
+    Window window = windows.get(operation);
+    return window == null ? -1 : window.percentile(percentile);
+  }
+
+  private static final class Window {
+
+    // share of new samples after which the sorted copy is refreshed
+    private static final int REFRESH_DIVISOR = 20;
+
+    private final long[] samples;
+    private int next;
+    private int size;
+    // sorted copy of the samples, null if it has to be refreshed
+    private long[] sorted;
+    private int recordedSinceSort;
+
+    private Window(int capacity) {
+      this.samples = new long[capacity];
+    }
+
+    private synchronized void record(long nanos) {
+      samples[next] = nanos;
+      next = (next + 1) % samples.length;
+      size = Math.min(size + 1, samples.length);
+      recordedSinceSort++;
+      if (recordedSinceSort * REFRESH_DIVISOR >= size) {
+        sorted = null;
+      }
+    }
+
+    private synchronized int size() {
+      return size;
+    }
+
+    private long percentile(double percentile) {
+      long[] current = sortedSamples();
+      if (current == null) {
+        return -1;
+      }
+      int index = (int) Math.ceil(percentile * current.length) - 1;
+      return current[Math.max(0, Math.min(current.length - 1, index))];
+    }
+
+    /**
+     * @return the sorted copy of the samples, null if there are none
+     */
+    private synchronized long[] sortedSamples() {
+      if (sorted == null && size > 0) {
+        sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        recordedSinceSort = 0;
+      }
+      return sorted;
+    }
+  }
+}
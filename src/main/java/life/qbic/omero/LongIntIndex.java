@@ -0,0 +1,65 @@
+package life.qbic.omero;
+
+/**
+ * An immutable open addressing hash index mapping primitive long keys to int positions.
+ *
+ * <p>Used to look up the position of an OMERO identifier in the parallel arrays of compact data
+ * holders without boxing the keys.</p>
+ *
+ * @since 1.4.0
+ */
+final class LongIntIndex {
+
+  private static final int EMPTY = 0;
+
+  private final long[] keys;
+  // positions are stored shifted by one, so 0 marks an empty slot
+  private final int[] positions;
+  private final int mask;
+
+  /**
+   * Creates an index over the given keys. The position of a key is its index in the array. If a
+   * key occurs more than once, the first occurrence is indexed.
+   *
+   * @param keys the keys to index
+   * @param length the number of leading keys of the array to index
+   */
+  LongIntIndex(long[] keys, int length) {
+    int capacity = Integer.highestOneBit(Math.max(2, length) * 2 - 1) << 1;
+    this.keys = new long[capacity];
+    this.positions = new int[capacity];
+    this.mask = capacity - 1;
+
+    for (int position = 0; position < length; position++) {
+      long key = keys[position];
+      int slot = slot(key);
+      while (positions[slot] != EMPTY && this.keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      if (positions[slot] == EMPTY) {
+        this.keys[slot] = key;
+        this.positions[slot] = position + 1;
+      }
+    }
+  }
+
+  /**
+   * @param key the key to look up
+   * @return the position of the key or -1 if the key is not indexed
+   */
+  int get(long key) {
+    int slot = slot(key);
+    while (positions[slot] != EMPTY) {
+      if (keys[slot] == key) {
+        return positions[slot] - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private int slot(long key) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+}
@@ -0,0 +1,501 @@
+package life.qbic.omero;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent local cache of the project, dataset and image hierarchy of an OMERO server.
+ *
+ * <p>The cache is stored in an append-only log file. Every change appends a record; on start-up
+ * the file is memory mapped and replayed, later records replacing earlier ones. Records that were
+ * only partially written, e.g. because the JVM stopped while writing, are discarded. The log is
+ * rewritten when it holds considerably more records than live entries.</p>
+ *
+ * <p>Only files written by a cache are ever truncated or replaced. Opening any other non-empty file
+ * fails.</p>
+ *
+ * <p>Every entry carries the update timestamp of the corresponding OMERO object, which allows
+ * detecting stale entries by comparing it to the server. Entries stored without a known timestamp
+ * use {@link #UNKNOWN_UPDATE}.</p>
+ *
+ * @since 1.4.0
+ */
+public class MetadataCache implements Closeable {
+
+  /**
+   * The update timestamp of entries whose server side update time is not known
+   */
+  public static final long UNKNOWN_UPDATE = -1L;
+
+  /**
+   * The parent id of top level entries, i.e. projects
+   */
+  public static final long NO_PARENT = 0L;
+
+  private static final int MAGIC = 0x4F4D4331;
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+  // compact on open when there are more than this many superseded records per live entry
+  private static final int COMPACTION_RATIO = 2;
+  private static final int MIN_RECORDS_FOR_COMPACTION = 1024;
+
+  private final File file;
+  // entries by kind, parent id and entry id
+  private final Map<Kind, Map<Long, Map<Long, Entry>>> entries;
+  private DataOutputStream log;
+  private long records;
+  private boolean closed;
+
+  /**
+   * Opens the cache stored in the given file. A new cache is created if the file does not exist
+   * or is empty.
+   *
+   * @param file the file the cache is stored in
+   * @throws IllegalArgumentException if the file exists and is not a metadata cache
+   */
+  public MetadataCache(File file) {
+    this.file = file;
+    this.entries = new EnumMap<>(Kind.class);
+    for (Kind kind : Kind.values()) {
+      entries.put(kind, new ConcurrentHashMap<>());
+    }
+
+    try {
+      long validLength = replay();
+      if (validLength > 0 && validLength < file.length()) {
+        try (RandomAccessFile truncate = new RandomAccessFile(file, "rw")) {
+          truncate.setLength(validLength);
+        }
+      }
+      openLog(validLength == 0);
+      if (records > MIN_RECORDS_FOR_COMPACTION && records > COMPACTION_RATIO * size()) {
+        try {
+          compact();
+        } catch (RuntimeException compactionFailed) {
+          // the uncompacted log stays in use
+        }
+      }
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not open metadata cache " + file, ioException);
+    }
+  }
+
+  /**
+   * @return true if the cache holds no entries
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * @return the number of entries in the cache
+   */
+  public int size() {
+    int size = 0;
+    for (Map<Long, Map<Long, Entry>> byParent : entries.values()) {
+      for (Map<Long, Entry> children : byParent.values()) {
+        size += children.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @param kind the kind of the entry
+   * @param parentId the id of the parent, {@link #NO_PARENT} for projects
+   * @param id the omero identifier of the entry
+   * @return the entry or null if no such entry is cached
+   */
+  public Entry get(Kind kind, long parentId, long id) {
+    Map<Long, Entry> children = entries.get(kind).get(parentId);
+    return children == null ? null : children.get(id);
+  }
+
+  /**
+   * @param kind the kind of the entries
+   * @return all cached entries of the given kind
+   */
+  public List<Entry> getAll(Kind kind) {
+    List<Entry> all = new ArrayList<>();
+    for (Map<Long, Entry> children : entries.get(kind).values()) {
+      all.addAll(children.values());
+    }
+    return all;
+  }
+
+  /**
+   * @param kind the kind of the children
+   * @param parentId the id of the parent, {@link #NO_PARENT} for projects
+   * @return the cached children of the parent, an empty list if none are cached
+   */
+  public List<Entry> getChildren(Kind kind, long parentId) {
+    Map<Long, Entry> children = entries.get(kind).get(parentId);
+    return children == null ? Collections.emptyList() : new ArrayList<>(children.values());
+  }
+
+  /**
+   * @param kind the kind of the children
+   * @param parentId the id of the parent
+   * @return true if any children of the parent are cached
+   */
+  public boolean hasChildren(Kind kind, long parentId) {
+    Map<Long, Entry> children = entries.get(kind).get(parentId);
+    return children != null && !children.isEmpty();
+  }
+
+  /**
+   * Stores an entry. Nothing is written if an equal entry is cached already or if the cache is
+   * closed.
+   *
+   * @param kind the kind of the entry
+   * @param parentId the id of the parent, {@link #NO_PARENT} for projects
+   * @param id the omero identifier of the entry
+   * @param name the name of the entry
+   * @param description the description of the entry
+   * @param updated the update timestamp of the entry on the server or {@link #UNKNOWN_UPDATE}
+   */
+  public synchronized void put(Kind kind, long parentId, long id, String name,
+      String description, long updated) {
+    Entry entry = new Entry(kind, parentId, id, name, description, updated);
+    if (closed || entry.equals(get(kind, parentId, id))) {
+      return;
+    }
+    try {
+      writePut(log, entry);
+      records++;
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not write to metadata cache " + file, ioException);
+    }
+    apply(entry);
+  }
+
+  /**
+   * Removes an entry from the cache. Nothing is written if the cache is closed.
+   *
+   * @param kind the kind of the entry
+   * @param parentId the id of the parent, {@link #NO_PARENT} for projects
+   * @param id the omero identifier of the entry
+   */
+  public synchronized void remove(Kind kind, long parentId, long id) {
+    if (closed || get(kind, parentId, id) == null) {
+      return;
+    }
+    try {
+      log.writeByte(REMOVE);
+      writeKey(log, kind, parentId, id);
+      records++;
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not write to metadata cache " + file, ioException);
+    }
+    unapply(kind, parentId, id);
+  }
+
+  /**
+   * Writes buffered records to disk.
+   */
+  public synchronized void flush() {
+    if (closed) {
+      return;
+    }
+    try {
+      log.flush();
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not write to metadata cache " + file, ioException);
+    }
+  }
+
+  /**
+   * Rewrites the log so that it only contains the live entries. The log is kept unchanged if the
+   * rewrite fails.
+   */
+  public synchronized void compact() {
+    if (closed) {
+      return;
+    }
+    File compacted = new File(file.getPath() + ".compact");
+    long compactedRecords = 0;
+    try {
+      log.flush();
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(compacted)))) {
+        out.writeInt(MAGIC);
+        for (Kind kind : Kind.values()) {
+          for (Entry entry : getAll(kind)) {
+            writePut(out, entry);
+            compactedRecords++;
+          }
+        }
+      }
+    } catch (IOException ioException) {
+      compacted.delete();
+      throw new RuntimeException("Could not compact metadata cache " + file, ioException);
+    }
+
+    try {
+      log.close();
+      Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      records = compactedRecords;
+    } catch (IOException ioException) {
+      compacted.delete();
+      throw new RuntimeException("Could not compact metadata cache " + file, ioException);
+    } finally {
+      reopenLog();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      log.close();
+    } catch (IOException ioException) {
+      throw new RuntimeException("Could not close metadata cache " + file, ioException);
+    }
+  }
+
+  /**
+   * @return true if the cache was closed
+   */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Replays the log file into memory
+   *
+   * @return the length of the log up to the last complete record
+   */
+  private long replay() throws IOException {
+    if (!file.exists() || file.length() == 0) {
+      return 0;
+    }
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file.toPath())) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    try {
+      if (buffer.remaining() < Integer.BYTES || buffer.getInt() != MAGIC) {
+        // never truncate a file that was not written by a cache
+        throw new IllegalArgumentException(file + " is not a metadata cache");
+      }
+      long validLength = buffer.position();
+      try {
+        while (buffer.hasRemaining()) {
+          byte operation = buffer.get();
+          Kind kind = Kind.values()[buffer.get()];
+          long parentId = buffer.getLong();
+          long id = buffer.getLong();
+          if (operation == PUT) {
+            long updated = buffer.getLong();
+            String name = readString(buffer);
+            String description = readString(buffer);
+            apply(new Entry(kind, parentId, id, name, description, updated));
+          } else if (operation == REMOVE) {
+            unapply(kind, parentId, id);
+          } else {
+            break;
+          }
+          records++;
+          validLength = buffer.position();
+        }
+      } catch (BufferUnderflowException | IndexOutOfBoundsException incompleteRecord) {
+        // the last record was not written completely and is discarded
+      }
+      return validLength;
+    } finally {
+      unmap(buffer);
+    }
+  }
+
+  /**
+   * Releases the mapping of a buffer right away instead of once it is garbage collected. Mapped
+   * files cannot be truncated or replaced on Windows.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    try {
+      try {
+        // Java 9 and later
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      } catch (NoSuchMethodException java8) {
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      }
+    } catch (ReflectiveOperationException | RuntimeException unmapFailed) {
+      // the mapping is released once the buffer is garbage collected
+    }
+  }
+
+  /**
+   * Reopens the log after a failed compaction, later writes fail if it cannot be reopened
+   */
+  private void reopenLog() {
+    try {
+      openLog(false);
+    } catch (IOException ioException) {
+      closed = true;
+      throw new RuntimeException("Could not reopen metadata cache " + file, ioException);
+    }
+  }
+
+  private void openLog(boolean writeHeader) throws IOException {
+    log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    if (writeHeader) {
+      log.writeInt(MAGIC);
+      log.flush();
+    }
+  }
+
+  private void apply(Entry entry) {
+    entries.get(entry.kind).computeIfAbsent(entry.parentId, parent -> new ConcurrentHashMap<>())
+        .put(entry.id, entry);
+  }
+
+  private void unapply(Kind kind, long parentId, long id) {
+    Map<Long, Entry> children = entries.get(kind).get(parentId);
+    if (children != null) {
+      children.remove(id);
+    }
+  }
+
+  private static void writePut(DataOutputStream out, Entry entry) throws IOException {
+    out.writeByte(PUT);
+    writeKey(out, entry.kind, entry.parentId, entry.id);
+    out.writeLong(entry.updated);
+    writeString(out, entry.name);
+    writeString(out, entry.description);
+  }
+
+  private static void writeKey(DataOutputStream out, Kind kind, long parentId, long id)
+      throws IOException {
+    out.writeByte(kind.ordinal());
+    out.writeLong(parentId);
+    out.writeLong(id);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(MappedByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A cached project, dataset or image
+   *
+   * @since 1.4.0
+   */
+  public static final class Entry {
+
+    private final Kind kind;
+    private final long parentId;
+    private final long id;
+    private final String name;
+    private final String description;
+    private final long updated;
+
+    private Entry(Kind kind, long parentId, long id, String name, String description,
+        long updated) {
+      this.kind = kind;
+      this.parentId = parentId;
+      this.id = id;
+      this.name = name;
+      this.description = description;
+      this.updated = updated;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * @return the id of the containing project or dataset, {@link #NO_PARENT} for projects
+     */
+    public long getParentId() {
+      return parentId;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+
+    /**
+     * @return the update timestamp on the server in milliseconds or {@link #UNKNOWN_UPDATE}
+     */
+    public long getUpdated() {
+      return updated;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry entry = (Entry) o;
+      return parentId == entry.parentId && id == entry.id && updated == entry.updated
+          && kind == entry.kind && Objects.equals(name, entry.name)
+          && Objects.equals(description, entry.description);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(kind, parentId, id, name, description, updated);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package life.qbic.omero;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import life.qbic.omero.MetadataCache.Entry;
+import omero.RLong;
+import omero.RString;
+import omero.RTime;
+import omero.RType;
+import omero.ServerError;
+import omero.api.IQueryPrx;
+import omero.sys.ParametersI;
+
+/**
+ * Brings a {@link MetadataCache} up to date with the OMERO server.
+ *
+ * <p>Only the identifiers and update timestamps of projects, datasets and images are listed. Names
+ * and descriptions are loaded for new entries and entries whose timestamp differs from the cached
+ * one. Entries that no longer exist on the server are removed. Images are only synchronized for
+ * datasets whose images are cached already.</p>
+ *
+ * <p>Objects that are no longer found on the server in any of their cached parents are reported
+ * to a listener, e.g. to drop them from the {@link SearchIndex}.</p>
+ *
+ * @since 1.4.0
+ */
+final class MetadataCacheSynchronizer {
+
+  // maximum number of identifiers passed to a single query
+  private static final int BATCH_SIZE = 500;
+
+  private final MetadataCache cache;
+  private final BiConsumer<Kind, Long> removedListener;
+
+  /**
+   * @param cache the cache to synchronize
+   * @param removedListener called with the kind and id of every removed object
+   */
+  MetadataCacheSynchronizer(MetadataCache cache, BiConsumer<Kind, Long> removedListener) {
+    this.cache = cache;
+    this.removedListener = removedListener;
+  }
+
+  /**
+   * Synchronizes the cache with the server.
+   *
+   * @param query the query service used to list the server state
+   * @throws ServerError if a query fails
+   */
+  void synchronize(IQueryPrx query) throws ServerError {
+    List<long[]> projects = new ArrayList<>();
+    for (List<RType> row : query.projection(
+        "select p.id, p.details.updateEvent.time from Project as p", new ParametersI())) {
+      projects.add(new long[]{MetadataCache.NO_PARENT, longValue(row.get(0)), time(row.get(1))});
+    }
+    synchronize(query, Kind.PROJECT, "Project", projects, cache.getAll(Kind.PROJECT));
+
+    List<long[]> datasets = new ArrayList<>();
+    for (List<RType> row : query.projection(
+        "select l.parent.id, d.id, d.details.updateEvent.time "
+            + "from ProjectDatasetLink as l join l.child as d", new ParametersI())) {
+      datasets.add(new long[]{longValue(row.get(0)), longValue(row.get(1)), time(row.get(2))});
+    }
+    synchronize(query, Kind.DATASET, "Dataset", datasets, cache.getAll(Kind.DATASET));
+
+    Set<Long> datasetsWithImages = new HashSet<>();
+    List<Entry> cachedImages = cache.getAll(Kind.IMAGE);
+    for (Entry image : cachedImages) {
+      datasetsWithImages.add(image.getParentId());
+    }
+    List<long[]> images = new ArrayList<>();
+    for (List<Long> batch : batches(datasetsWithImages)) {
+      ParametersI parameters = new ParametersI();
+      parameters.addIds(batch);
+      for (List<RType> row : query.projection(
+          "select l.parent.id, i.id, i.details.updateEvent.time "
+              + "from DatasetImageLink as l join l.child as i where l.parent.id in (:ids)",
+          parameters)) {
+        images.add(new long[]{longValue(row.get(0)), longValue(row.get(1)), time(row.get(2))});
+      }
+    }
+    synchronize(query, Kind.IMAGE, "Image", images, cachedImages);
+  }
+
+  /**
+   * Synchronizes the cached entries of one kind
+   *
+   * @param kind the kind of the entries
+   * @param entityName the name of the OMERO model class of the entries
+   * @param stamps the parent id, id and update timestamp of every entry on the server
+   * @param cached the cached entries of the kind
+   */
+  private void synchronize(IQueryPrx query, Kind kind, String entityName, List<long[]> stamps,
+      Collection<Entry> cached) throws ServerError {
+    Set<List<Long>> onServer = new HashSet<>();
+    Set<Long> idsOnServer = new HashSet<>();
+    List<long[]> stale = new ArrayList<>();
+    Set<Long> staleIds = new HashSet<>();
+    for (long[] stamp : stamps) {
+      onServer.add(key(stamp[0], stamp[1]));
+      idsOnServer.add(stamp[1]);
+      Entry entry = cache.get(kind, stamp[0], stamp[1]);
+      if (entry == null || entry.getUpdated() != stamp[2]) {
+        stale.add(stamp);
+        staleIds.add(stamp[1]);
+      }
+    }
+
+    for (Entry entry : cached) {
+      if (!onServer.contains(key(entry.getParentId(), entry.getId()))) {
+        cache.remove(kind, entry.getParentId(), entry.getId());
+        // objects can be linked to several parents
+        if (!idsOnServer.contains(entry.getId())) {
+          removedListener.accept(kind, entry.getId());
+        }
+      }
+    }
+
+    Map<Long, String[]> details = new HashMap<>();
+    for (List<Long> batch : batches(staleIds)) {
+      ParametersI parameters = new ParametersI();
+      parameters.addIds(batch);
+      for (List<RType> row : query.projection(
+          "select e.id, e.name, e.description from " + entityName + " as e where e.id in (:ids)",
+          parameters)) {
+        details.put(longValue(row.get(0)),
+            new String[]{stringValue(row.get(1)), stringValue(row.get(2))});
+      }
+    }
+
+    for (long[] stamp : stale) {
+      String[] nameAndDescription = details.get(stamp[1]);
+      if (nameAndDescription != null) {
+        cache.put(kind, stamp[0], stamp[1], nameAndDescription[0], nameAndDescription[1],
+            stamp[2]);
+      }
+    }
+  }
+
+  private static List<Long> key(long parentId, long id) {
+    List<Long> key = new ArrayList<>(2);
+    key.add(parentId);
+    key.add(id);
+    return key;
+  }
+
+  private static List<List<Long>> batches(Collection<Long> ids) {
+    List<Long> all = new ArrayList<>(ids);
+    List<List<Long>> batches = new ArrayList<>();
+    for (int from = 0; from < all.size(); from += BATCH_SIZE) {
+      batches.add(all.subList(from, Math.min(from + BATCH_SIZE, all.size())));
+    }
+    return batches;
+  }
+
+  private static long longValue(RType value) {
+    return ((RLong) value).getValue();
+  }
+
+  private static long time(RType value) {
+    return value == null ? MetadataCache.UNKNOWN_UPDATE : ((RTime) value).getValue();
+  }
+
+  private static String stringValue(RType value) {
+    return value == null ? null : ((RString) value).getValue();
+  }
+}
@@ -0,0 +1,463 @@
+package life.qbic.omero;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+import omero.ServerError;
+import omero.gateway.SecurityContext;
+import omero.gateway.exception.DSOutOfServiceException;
+import omero.gateway.model.MapAnnotationData;
+import omero.log.Logger;
+import omero.log.SimpleLogger;
+import omero.model.Dataset;
+import omero.model.DatasetAnnotationLink;
+import omero.model.DatasetAnnotationLinkI;
+import omero.model.DatasetI;
+import omero.model.IObject;
+import omero.model.MapAnnotation;
+import omero.model.MapAnnotationI;
+import omero.model.NamedValue;
+import omero.model.Project;
+import omero.model.ProjectAnnotationLink;
+import omero.model.ProjectAnnotationLinkI;
+import omero.model.ProjectDatasetLink;
+import omero.model.ProjectDatasetLinkI;
+import omero.model.ProjectI;
+
+/**
+ * Defers the creation of projects, datasets, map annotations and file attachments and saves them
+ * in batches.
+ *
+ * <p>Mutations are queued locally and every mutation returns a future for the omero identifier
+ * assigned by the server. The queue is flushed once it holds the maximum batch size or once the
+ * oldest queued mutation waited for the maximum delay. Projects, datasets and map annotations of
+ * one flush are saved with one request and in one transaction; files are uploaded with
+ * {@link BasicOMEROClient#attachFiles(List, int, AttachmentListener)}.</p>
+ *
+ * <p>Failures are reported per mutation. If a batch is rejected by the server, its mutations are
+ * saved one by one, so only the futures of the offending mutations complete exceptionally.</p>
+ *
+ * <p>Batches are saved one after another in the order their mutations were queued. The futures
+ * complete on a separate thread, so continuations may queue mutations or flush the queue without
+ * delaying the next batch. Mutations depending on the identifier of a queued mutation are chained
+ * on its future:</p>
+ *
+ * <pre>{@code
+ * try (MutationQueue queue = client.newMutationQueue(200, 500)) {
+ *   queue.createProject("project", "")
+ *       .thenCompose(projectId -> queue.createDataset(projectId, "dataset", ""))
+ *       .thenCompose(datasetId -> queue.addMapAnnotationToDataset(datasetId, "key", "value"));
+ * }
+ * }</pre>
+ *
+ * <p>The queue is thread safe. Closing it saves all queued mutations.</p>
+ *
+ * @see BasicOMEROClient#newMutationQueue(int, long)
+ * @since 1.4.0
+ */
+public final class MutationQueue implements Closeable {
+
+  private static final int FILE_UPLOAD_CONCURRENCY = 4;
+
+  /**
+   * An unsaved object, how to read the assigned identifier from it once saved and what to do
+   * after it has been saved
+   */
+  private static final class Mutation {
+
+    private final IObject object;
+    private final ToLongFunction<IObject> savedId;
+    private final LongConsumer onSaved;
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+    private Mutation(IObject object, ToLongFunction<IObject> savedId, LongConsumer onSaved) {
+      this.object = object;
+      this.savedId = savedId;
+      this.onSaved = onSaved;
+    }
+  }
+
+  private final BasicOMEROClient client;
+  private final SecurityContext context;
+  private final int maxBatchSize;
+  private final long maxDelayMillis;
+  private final Logger logger = new SimpleLogger();
+  // runs the delayed flushes and saves the batches, one at a time
+  private final ScheduledExecutorService flusher;
+  // completes the futures in the order the mutations were saved
+  private final ExecutorService completer;
+  private volatile Thread flusherThread;
+  private volatile Thread completerThread;
+
+  private final Object lock = new Object();
+  private List<Mutation> pendingMutations = new ArrayList<>();
+  private Map<FileAttachment, CompletableFuture<Long>> pendingFiles = new IdentityHashMap<>();
+  private ScheduledFuture<?> scheduledFlush;
+  private boolean closed;
+
+  /**
+   * @param client saves the mutations
+   * @param context the security context the mutations are saved with
+   * @param maxBatchSize the number of queued mutations after which the queue is flushed
+   * @param maxDelayMillis how long a mutation is queued at most before the queue is flushed
+   */
+  MutationQueue(BasicOMEROClient client, SecurityContext context, int maxBatchSize,
+      long maxDelayMillis) {
+    this.client = client;
+    this.context = context;
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.maxDelayMillis = Math.max(0, maxDelayMillis);
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> flusherThread =
+        new DaemonThreadFactory("omero-mutation-queue").newThread(runnable));
+    this.completer = Executors.newSingleThreadExecutor(runnable -> completerThread =
+        new DaemonThreadFactory("omero-mutation-queue-completion").newThread(runnable));
+  }
+
+  /**
+   * Queues the creation of a project.
+   *
+   * @return completes with the omero identifier of the created project
+   */
+  public CompletableFuture<Long> createProject(String name, String desc) {
+    Project project = new ProjectI();
+    project.setName(omero.rtypes.rstring(name));
+    project.setDescription(omero.rtypes.rstring(desc));
+    return enqueue(new Mutation(project,
+        saved -> saved.getId().getValue(),
+        projectId -> client.projectCreated(context, projectId, name, desc)));
+  }
+
+  /**
+   * Queues the creation of a dataset in an existing project.
+   *
+   * @param projectId the omero identifier of the project
+   * @return completes with the omero identifier of the created dataset
+   */
+  public CompletableFuture<Long> createDataset(long projectId, String name, String desc) {
+    Dataset dataset = new DatasetI();
+    dataset.setName(omero.rtypes.rstring(name));
+    dataset.setDescription(omero.rtypes.rstring(desc));
+    ProjectDatasetLink link = new ProjectDatasetLinkI();
+    link.setChild(dataset);
+    link.setParent(new ProjectI(projectId, false));
+    return enqueue(new Mutation(link,
+        saved -> ((ProjectDatasetLink) saved).getChild().getId().getValue(),
+        datasetId -> client.datasetCreated(context, projectId, datasetId, name, desc)));
+  }
+
+  /**
+   * Queues a key-value pair to be attached to a project as map annotation.
+   *
+   * @param projectId the omero identifier of the project
+   * @return completes with the omero identifier of the created map annotation
+   */
+  public CompletableFuture<Long> addMapAnnotationToProject(long projectId, String key,
+      String value) {
+    ProjectAnnotationLink link = new ProjectAnnotationLinkI();
+    link.setChild(newMapAnnotation(key, value));
+    link.setParent(new ProjectI(projectId, false));
+    return enqueue(new Mutation(link,
+        saved -> ((ProjectAnnotationLink) saved).getChild().getId().getValue(),
+        annotationId -> client.mapAnnotationAdded(Kind.PROJECT, projectId, key, value)));
+  }
+
+  /**
+   * Queues a key-value pair to be attached to a dataset as map annotation.
+   *
+   * @param datasetId the omero identifier of the dataset
+   * @return completes with the omero identifier of the created map annotation
+   */
+  public CompletableFuture<Long> addMapAnnotationToDataset(long datasetId, String key,
+      String value) {
+    DatasetAnnotationLink link = new DatasetAnnotationLinkI();
+    link.setChild(newMapAnnotation(key, value));
+    link.setParent(new DatasetI(datasetId, false));
+    return enqueue(new Mutation(link,
+        saved -> ((DatasetAnnotationLink) saved).getChild().getId().getValue(),
+        annotationId -> client.mapAnnotationAdded(Kind.DATASET, datasetId, key, value)));
+  }
+
+  /**
+   * Queues a file to be uploaded and attached as file annotation.
+   *
+   * @param attachment the file and the object to attach it to
+   * @return completes with the omero identifier of the created file annotation
+   * @throws IllegalArgumentException if the attachment is already queued
+   */
+  public CompletableFuture<Long> attachFile(FileAttachment attachment) {
+    CompletableFuture<Long> result = new CompletableFuture<>();
+    boolean flush;
+    synchronized (lock) {
+      checkOpen();
+      if (pendingFiles.putIfAbsent(attachment, result) != null) {
+        throw new IllegalArgumentException(attachment + " is already queued");
+      }
+      flush = scheduleFlush();
+    }
+    if (flush) {
+      submitFlush();
+    }
+    return result;
+  }
+
+  /**
+   * Saves all queued mutations and waits until they are saved and their futures completed. Called
+   * from a continuation, the futures completed after the continuation are not waited for.
+   *
+   * @throws IllegalStateException if called while a batch is saved, e.g. from a hook of the
+   *     client
+   */
+  public void flush() {
+    checkNotFlusher();
+    await(submitFlush());
+    if (Thread.currentThread() != completerThread) {
+      await(submitCompletion(() -> {
+      }));
+    }
+  }
+
+  /**
+   * @return the number of queued mutations not yet handed over for saving
+   */
+  public int size() {
+    synchronized (lock) {
+      return pendingMutations.size() + pendingFiles.size();
+    }
+  }
+
+  /**
+   * Saves all queued mutations and stops the queue. Mutations cannot be queued afterwards.
+   *
+   * @throws IllegalStateException if called while a batch is saved, e.g. from a hook of the
+   *     client
+   */
+  @Override
+  public void close() {
+    checkNotFlusher();
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+    }
+    // completing the futures may queue mutations chained on them
+    do {
+      flush();
+    } while (size() > 0);
+    synchronized (lock) {
+      closed = true;
+    }
+    try {
+      flush();
+    } finally {
+      flusher.shutdown();
+      completer.shutdown();
+    }
+  }
+
+  private static MapAnnotation newMapAnnotation(String key, String value) {
+    List<NamedValue> result = new ArrayList<NamedValue>();
+    result.add(new NamedValue(key, value));
+
+    MapAnnotation annotation = new MapAnnotationI();
+    annotation.setMapValue(result);
+    // Use the following namespace if you want the annotation to be editable
+    // in the webclient and insight
+    annotation.setNs(omero.rtypes.rstring(MapAnnotationData.NS_CLIENT_CREATED));
+    return annotation;
+  }
+
+  private CompletableFuture<Long> enqueue(Mutation mutation) {
+    boolean flush;
+    synchronized (lock) {
+      checkOpen();
+      pendingMutations.add(mutation);
+      flush = scheduleFlush();
+    }
+    if (flush) {
+      submitFlush();
+    }
+    return mutation.result;
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("The mutation queue is closed");
+    }
+  }
+
+  /**
+   * Waiting for the flusher on its own thread would never return
+   */
+  private void checkNotFlusher() {
+    if (Thread.currentThread() == flusherThread) {
+      throw new IllegalStateException("The mutation queue cannot be flushed while saving a batch");
+    }
+  }
+
+  private static void await(Future<?> future) {
+    try {
+      future.get();
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Task aborted unexpectedly.", interruptedException);
+    } catch (ExecutionException executionException) {
+      throw new RuntimeException("Task aborted unexpectedly.", executionException.getCause());
+    }
+  }
+
+  /**
+   * Schedules the flush of the first queued mutation, must be called holding the lock
+   *
+   * @return true if the queue is full and must be flushed immediately
+   */
+  private boolean scheduleFlush() {
+    if (pendingMutations.size() + pendingFiles.size() >= maxBatchSize) {
+      return true;
+    }
+    if (scheduledFlush == null) {
+      scheduledFlush = flusher.schedule(this::saveQueued, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+    return false;
+  }
+
+  private Future<?> submitFlush() {
+    try {
+      return flusher.submit(this::saveQueued);
+    } catch (RejectedExecutionException shutDown) {
+      // the queue was closed after the mutations were taken
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+
+  private void saveQueued() {
+    List<Mutation> mutations;
+    Map<FileAttachment, CompletableFuture<Long>> files;
+    synchronized (lock) {
+      mutations = pendingMutations;
+      files = pendingFiles;
+      pendingMutations = new ArrayList<>();
+      pendingFiles = new IdentityHashMap<>();
+      if (scheduledFlush != null) {
+        scheduledFlush.cancel(false);
+        scheduledFlush = null;
+      }
+    }
+    for (int from = 0; from < mutations.size(); from += maxBatchSize) {
+      save(mutations.subList(from, Math.min(from + maxBatchSize, mutations.size())));
+    }
+    if (!files.isEmpty()) {
+      attach(files);
+    }
+  }
+
+  /**
+   * Saves the mutations in one transaction, one by one if the transaction fails
+   */
+  private void save(List<Mutation> batch) {
+    List<IObject> objects = new ArrayList<>(batch.size());
+    for (Mutation mutation : batch) {
+      objects.add(mutation.object);
+    }
+
+    List<IObject> saved;
+    try {
+      saved = client.saveObjects(context, objects);
+    } catch (ServerError serverError) {
+      if (batch.size() > 1) {
+        // nothing of the batch was saved, find the mutations the server rejects
+        for (Mutation mutation : batch) {
+          save(Collections.singletonList(mutation));
+        }
+      } else {
+        fail(batch, new RuntimeException("Omero store interaction failed.", serverError));
+      }
+      return;
+    } catch (DSOutOfServiceException dsOutOfServiceException) {
+      fail(batch, new RuntimeException(
+          "Error while accessing omero service: broken connection, expired session or not logged in",
+          dsOutOfServiceException));
+      return;
+    } catch (RuntimeException runtimeException) {
+      fail(batch, runtimeException);
+      return;
+    }
+
+    for (int i = 0; i < batch.size(); i++) {
+      Mutation mutation = batch.get(i);
+      long id;
+      try {
+        id = mutation.savedId.applyAsLong(saved.get(i));
+      } catch (RuntimeException runtimeException) {
+        fail(Collections.singletonList(mutation), runtimeException);
+        continue;
+      }
+      submitCompletion(() -> mutation.result.complete(id));
+      try {
+        mutation.onSaved.accept(id);
+      } catch (RuntimeException runtimeException) {
+        // the mutation is saved, failing its future would make the caller save it again
+        logger.warn(this, "Could not update the client after saving object " + id + ": "
+            + runtimeException);
+      }
+    }
+  }
+
+  private void attach(Map<FileAttachment, CompletableFuture<Long>> files) {
+    Map<FileAttachment, Long> annotationIds;
+    try {
+      annotationIds = client.inGroup(context,
+          () -> client.attachFiles(new ArrayList<>(files.keySet()), FILE_UPLOAD_CONCURRENCY,
+              new AttachmentListener() {
+                @Override
+                public void onFileFailed(FileAttachment attachment, Exception exception) {
+                  CompletableFuture<Long> result = files.get(attachment);
+                  submitCompletion(() -> result.completeExceptionally(
+                      new RuntimeException("Omero store interaction failed.", exception)));
+                }
+              }));
+    } catch (RuntimeException runtimeException) {
+      for (CompletableFuture<Long> result : files.values()) {
+        submitCompletion(() -> result.completeExceptionally(runtimeException));
+      }
+      return;
+    }
+    for (Map.Entry<FileAttachment, Long> annotationId : annotationIds.entrySet()) {
+      CompletableFuture<Long> result = files.get(annotationId.getKey());
+      submitCompletion(() -> result.complete(annotationId.getValue()));
+    }
+  }
+
+  private void fail(List<Mutation> batch, RuntimeException exception) {
+    for (Mutation mutation : batch) {
+      submitCompletion(() -> mutation.result.completeExceptionally(exception));
+    }
+  }
+
+  /**
+   * Completes a future on the completion thread, so that its continuations never block the
+   * flusher
+   */
+  private Future<?> submitCompletion(Runnable completion) {
+    try {
+      return completer.submit(completion);
+    } catch (RejectedExecutionException shutDown) {
+      // a delayed flush ran after the queue was closed
+      completion.run();
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+}
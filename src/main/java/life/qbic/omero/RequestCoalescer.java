@@ -0,0 +1,135 @@
+package life.qbic.omero;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects concurrent single-key requests over a short window and answers them with one batched
+ * call.
+ *
+ * <p>The first request after a flush opens a window. All requests arriving within the window,
+ * or until the batch is full, are loaded together and every caller receives the result for its
+ * own key. Concurrent requests for the same key share one result.</p>
+ *
+ * @param <K> the type of the requested keys
+ * @param <V> the type of the results
+ * @since 1.4.0
+ */
+final class RequestCoalescer<K, V> {
+
+  private final Function<Collection<K>, Map<K, V>> batchLoader;
+  private final long windowNanos;
+  private final int maxBatchSize;
+  private final ScheduledExecutorService timer;
+  private final Executor executor;
+
+  private final Object lock = new Object();
+  private Map<K, CompletableFuture<V>> pending = new LinkedHashMap<>();
+  private ScheduledFuture<?> scheduledFlush;
+
+  /**
+   * @param batchLoader loads the results of many keys, keys without result are missing in the
+   *     returned map
+   * @param windowNanos how long requests are collected before the batch is loaded
+   * @param maxBatchSize the number of keys after which the batch is loaded immediately
+   * @param timer closes the collection windows
+   * @param executor runs the batched calls
+   */
+  RequestCoalescer(Function<Collection<K>, Map<K, V>> batchLoader, long windowNanos,
+      int maxBatchSize, ScheduledExecutorService timer, Executor executor) {
+    this.batchLoader = batchLoader;
+    this.windowNanos = windowNanos;
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.timer = timer;
+    this.executor = executor;
+  }
+
+  /**
+   * Requests the result of a single key.
+   *
+   * @param key the requested key
+   * @return completes with the result of the key, with null if the batch loader returned no
+   *     result for it or exceptionally if the batched call failed
+   */
+  CompletableFuture<V> request(K key) {
+    CompletableFuture<V> result;
+    Map<K, CompletableFuture<V>> batch = null;
+    synchronized (lock) {
+      result = pending.computeIfAbsent(key, ignored -> new CompletableFuture<>());
+      if (pending.size() >= maxBatchSize) {
+        batch = takePending();
+      } else if (scheduledFlush == null) {
+        try {
+          scheduledFlush = timer.schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException shutDown) {
+          // no window can be opened any more, the request is answered on its own
+          batch = takePending();
+        }
+      }
+    }
+    if (batch != null) {
+      dispatch(batch);
+    }
+    return result;
+  }
+
+  /**
+   * Loads all collected requests without waiting for the window to close.
+   */
+  void flush() {
+    Map<K, CompletableFuture<V>> batch;
+    synchronized (lock) {
+      batch = takePending();
+    }
+    dispatch(batch);
+  }
+
+  private Map<K, CompletableFuture<V>> takePending() {
+    Map<K, CompletableFuture<V>> batch = pending;
+    pending = new LinkedHashMap<>();
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    return batch;
+  }
+
+  private void dispatch(Map<K, CompletableFuture<V>> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      executor.execute(() -> load(batch));
+    } catch (RejectedExecutionException rejected) {
+      fail(batch, rejected);
+    }
+  }
+
+  private void load(Map<K, CompletableFuture<V>> batch) {
+    Map<K, V> results;
+    try {
+      results = batchLoader.apply(Collections.unmodifiableSet(batch.keySet()));
+    } catch (RuntimeException exception) {
+      fail(batch, exception);
+      return;
+    }
+    for (Map.Entry<K, CompletableFuture<V>> request : batch.entrySet()) {
+      request.getValue().complete(results.get(request.getKey()));
+    }
+  }
+
+  private void fail(Map<K, CompletableFuture<V>> batch, Exception exception) {
+    for (CompletableFuture<V> request : batch.values()) {
+      request.completeExceptionally(exception);
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package life.qbic.omero;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import omero.ServerError;
+import omero.api.ExporterPrx;
+import omero.api.RawFileStorePrx;
+import omero.gateway.exception.DSOutOfServiceException;
+import omero.model.OriginalFile;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Chunked transfers between local files and OMERO that survive failing service proxies.
+ *
+ * <p>Every transfer keeps track of the last offset confirmed by both sides. When a chunk fails,
+ * the service is reopened and the transfer continues from that offset, so a retry only costs the
+ * missing bytes. Uploads are verified against the SHA-1 checksum the server computes on save, an
+ * upload the server returns no checksum for fails.</p>
+ *
+ * @since 1.4.0
+ */
+final class ResumableTransfer {
+
+  private static final long RETRY_DELAY_MILLIS = 1000L;
+  // number of consecutive failures after which an export proxy is considered lost
+  private static final int FAILURES_PER_EXPORTER = 2;
+
+  private ResumableTransfer() {
+  }
+
+  /**
+   * Uploads a local file to the RawFileStore of an original file. If the original file already
+   * holds data, e.g. from an interrupted upload, the upload continues after the stored bytes.
+   *
+   * @param rawFileStores opens the RawFileStore the file is written to
+   * @param originalFileId the omero identifier of the saved original file
+   * @param file the local file to upload
+   * @param chunks chooses the number of bytes written per request
+   * @param maxAttempts the number of times the RawFileStore is opened before giving up
+   * @param chunkWritten notified with the number of bytes added by every written chunk
+   * @return the original file as returned by the RawFileStore after saving
+   * @throws IOException if the file could not be read, the upload failed in every attempt or
+   *     could not be verified
+   */
+  static OriginalFile upload(ServiceFactory<RawFileStorePrx> rawFileStores, long originalFileId,
+      File file, ChunkSizeController chunks, int maxAttempts, IntConsumer chunkWritten)
+      throws IOException {
+    String expectedHash;
+    try (InputStream inputStream = new FileInputStream(file)) {
+      expectedHash = DigestUtils.sha1Hex(inputStream);
+    }
+    long length = file.length();
+    // progress is only reported once for bytes that are written again after a failure
+    long reported = 0;
+    boolean fromStart = false;
+    Exception failure = null;
+
+    for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+      RawFileStorePrx rawFileStore = null;
+      try {
+        rawFileStore = rawFileStores.open();
+        rawFileStore.setFileId(originalFileId);
+        long offset = fromStart ? 0 : Math.min(rawFileStore.size(), length);
+        fromStart = false;
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+          input.seek(offset);
+          byte[] bytes = new byte[chunks.getChunkSize()];
+          int readLength;
+          while (true) {
+            int chunkSize = chunks.getChunkSize();
+            if (bytes.length != chunkSize) {
+              bytes = new byte[chunkSize];
+            }
+            if ((readLength = input.read(bytes, 0, chunkSize)) <= 0) {
+              break;
+            }
+            // the whole array is sent to the server, regardless of the given length
+            byte[] chunk = readLength == bytes.length ? bytes : Arrays.copyOf(bytes, readLength);
+            long start = System.nanoTime();
+            rawFileStore.write(chunk, offset, readLength);
+            chunks.record(chunkSize, readLength, System.nanoTime() - start);
+            offset += readLength;
+            if (offset > reported) {
+              chunkWritten.accept((int) (offset - reported));
+              reported = offset;
+            }
+          }
+        }
+
+        OriginalFile savedFile = rawFileStore.save();
+        if (savedFile.getHash() == null) {
+          // uploading again would not yield a checksum either
+          throw new IOException("The server returned no checksum for " + file.getName()
+              + ", the upload could not be verified");
+        }
+        if (expectedHash.equalsIgnoreCase(savedFile.getHash().getValue())) {
+          return savedFile;
+        }
+        failure = new IOException("Checksum mismatch after uploading " + file.getName());
+        fromStart = true;
+      } catch (DSOutOfServiceException | ServerError | Ice.LocalException exception) {
+        failure = exception;
+      } finally {
+        closeQuietly(rawFileStore);
+      }
+      pause(attempt, maxAttempts);
+    }
+    throw new IOException(
+        "Upload of " + file.getName() + " failed after " + maxAttempts + " attempts", failure);
+  }
+
+  /**
+   * Exports an image as OME-TIFF into a local file. Failed reads are repeated from the last
+   * offset written to the file. The exporter generates a new OME-TIFF with a new UUID when it has
+   * to be reopened, so in this case the download starts over.
+   *
+   * @param exporters opens the exporter the image is exported with
+   * @param imageId the omero identifier of the image
+   * @param target the local file receiving the OME-TIFF
+   * @param chunks chooses the number of bytes read per request
+   * @param maxAttempts the number of failures tolerated before giving up
+   * @return the length of the exported file
+   * @throws IOException if the file could not be written or the export failed too often
+   */
+  static long export(ServiceFactory<ExporterPrx> exporters, long imageId, File target,
+      ChunkSizeController chunks, int maxAttempts) throws IOException {
+    ExporterPrx exporter = null;
+    long length = 0;
+    long confirmed = 0;
+    int failuresOfExporter = 0;
+    Exception failure = null;
+
+    try (RandomAccessFile output = new RandomAccessFile(target, "rw")) {
+      for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+        try {
+          if (exporter == null) {
+            // an exporter is only kept once it generated the OME-TIFF
+            length = 0;
+            ExporterPrx opened = exporters.open();
+            try {
+              opened.addImage(imageId);
+              length = opened.generateTiff();
+            } finally {
+              if (length <= 0) {
+                closeQuietly(opened);
+              }
+            }
+            if (length <= 0) {
+              failure = new IOException("Exporter generated no OME-TIFF for image " + imageId);
+              pause(attempt, maxAttempts);
+              continue;
+            }
+            exporter = opened;
+            confirmed = 0;
+            failuresOfExporter = 0;
+            output.setLength(0);
+          }
+
+          output.seek(confirmed);
+          while (confirmed < length) {
+            int chunkSize = (int) Math.min(chunks.getChunkSize(), length - confirmed);
+            long start = System.nanoTime();
+            byte[] slice = exporter.read(confirmed, chunkSize);
+            chunks.record(chunkSize, slice.length, System.nanoTime() - start);
+            if (slice.length == 0) {
+              throw new IOException("Exporter returned no data at offset " + confirmed);
+            }
+            output.write(slice);
+            confirmed += slice.length;
+            failuresOfExporter = 0;
+          }
+          output.setLength(length);
+          return length;
+
+        } catch (DSOutOfServiceException | ServerError | Ice.LocalException exception) {
+          failure = exception;
+          if (++failuresOfExporter >= FAILURES_PER_EXPORTER) {
+            closeQuietly(exporter);
+            exporter = null;
+          }
+        }
+        pause(attempt, maxAttempts);
+      }
+    } finally {
+      closeQuietly(exporter);
+    }
+    throw new IOException(
+        "Export of image " + imageId + " failed after " + maxAttempts + " attempts", failure);
+  }
+
+  private static void pause(int attempt, int maxAttempts) throws InterruptedIOException {
+    if (attempt >= maxAttempts) {
+      return;
+    }
+    try {
+      Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Transfer was interrupted");
+    }
+  }
+
+  private static void closeQuietly(RawFileStorePrx rawFileStore) {
+    if (rawFileStore == null) {
+      return;
+    }
+    try {
+      rawFileStore.close();
+    } catch (ServerError | Ice.LocalException ignored) {
+      // the proxy is discarded anyway
+    }
+  }
+
+  private static void closeQuietly(ExporterPrx exporter) {
+    if (exporter == null) {
+      return;
+    }
+    try {
+      exporter.close();
+    } catch (ServerError | Ice.LocalException ignored) {
+      // the proxy is discarded anyway
+    }
+  }
+}
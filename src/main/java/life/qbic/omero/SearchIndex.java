@@ -0,0 +1,272 @@
+package life.qbic.omero;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory inverted index over the names, descriptions and map annotations of projects,
+ * datasets and images.
+ *
+ * <p>Texts are split into lower case tokens at every character that is neither a letter nor a
+ * digit. A query matches an object if every token of the query is a prefix of one of the tokens
+ * indexed for the object.</p>
+ *
+ * <p>The index is filled incrementally from the data the {@link BasicOMEROClient} loads and
+ * creates. It is safe to use from several threads.</p>
+ *
+ * @since 1.4.0
+ */
+public class SearchIndex {
+
+  /**
+   * The field holding the name of an object
+   */
+  public static final String NAME = "name";
+  /**
+   * The field holding the description of an object
+   */
+  public static final String DESCRIPTION = "description";
+  /**
+   * The field holding the keys and values of the map annotations of an object
+   */
+  public static final String ANNOTATIONS = "annotations";
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final NavigableMap<String, Set<Hit>> postings = new TreeMap<>();
+  private final Map<Hit, Map<String, Set<String>>> indexedFields = new HashMap<>();
+
+  /**
+   * Replaces the text indexed in a field of an object.
+   *
+   * @param kind the kind of the object
+   * @param id the omero identifier of the object
+   * @param field the field holding the text, e.g. {@link #NAME}
+   * @param text the text to index, null or a text without tokens to clear the field
+   */
+  public void index(Kind kind, long id, String field, String text) {
+    Hit hit = new Hit(kind, id);
+    Set<String> tokens = tokenize(text);
+
+    lock.writeLock().lock();
+    try {
+      Map<String, Set<String>> fields = indexedFields.computeIfAbsent(hit, key -> new HashMap<>());
+      Set<String> previous = tokens.isEmpty() ? fields.remove(field) : fields.put(field, tokens);
+      if (previous != null) {
+        unlink(hit, previous, fields);
+      }
+      if (fields.isEmpty()) {
+        // objects without any indexed text are not kept
+        indexedFields.remove(hit);
+      }
+      link(hit, tokens);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Adds text to a field of an object, keeping the text indexed in the field before.
+   *
+   * @param kind the kind of the object
+   * @param id the omero identifier of the object
+   * @param field the field holding the text, e.g. {@link #ANNOTATIONS}
+   * @param text the text to add
+   */
+  public void add(Kind kind, long id, String field, String text) {
+    Hit hit = new Hit(kind, id);
+    Set<String> tokens = tokenize(text);
+
+    lock.writeLock().lock();
+    try {
+      indexedFields.computeIfAbsent(hit, key -> new HashMap<>())
+          .computeIfAbsent(field, key -> new HashSet<>()).addAll(tokens);
+      link(hit, tokens);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes an object from the index.
+   *
+   * @param kind the kind of the object
+   * @param id the omero identifier of the object
+   */
+  public void remove(Kind kind, long id) {
+    Hit hit = new Hit(kind, id);
+
+    lock.writeLock().lock();
+    try {
+      Map<String, Set<String>> fields = indexedFields.remove(hit);
+      if (fields != null) {
+        for (Set<String> tokens : fields.values()) {
+          unlink(hit, tokens, Collections.emptyMap());
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Finds all objects for which every token of the query is a prefix of an indexed token.
+   *
+   * @param query the search query
+   * @return the matching objects, an empty list if the query contains no tokens
+   */
+  public List<Hit> search(String query) {
+    Set<String> queryTokens = tokenize(query);
+    if (queryTokens.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    lock.readLock().lock();
+    try {
+      Set<Hit> result = null;
+      for (String token : queryTokens) {
+        Set<Hit> matches = new HashSet<>();
+        for (Set<Hit> hits : postings.subMap(token, true, token + Character.MAX_VALUE, false)
+            .values()) {
+          if (result == null) {
+            matches.addAll(hits);
+          } else {
+            for (Hit hit : hits) {
+              if (result.contains(hit)) {
+                matches.add(hit);
+              }
+            }
+          }
+        }
+        result = matches;
+        if (result.isEmpty()) {
+          break;
+        }
+      }
+      return new ArrayList<>(result);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of indexed objects
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return indexedFields.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void link(Hit hit, Collection<String> tokens) {
+    for (String token : tokens) {
+      postings.computeIfAbsent(token, key -> new HashSet<>()).add(hit);
+    }
+  }
+
+  /**
+   * Removes the hit from the postings of the given tokens, unless the token is still indexed in
+   * one of the remaining fields of the hit
+   */
+  private void unlink(Hit hit, Collection<String> tokens, Map<String, Set<String>> remaining) {
+    for (String token : tokens) {
+      boolean stillIndexed = false;
+      for (Set<String> fieldTokens : remaining.values()) {
+        if (fieldTokens.contains(token)) {
+          stillIndexed = true;
+          break;
+        }
+      }
+      if (stillIndexed) {
+        continue;
+      }
+      Set<Hit> hits = postings.get(token);
+      if (hits != null) {
+        hits.remove(hit);
+        if (hits.isEmpty()) {
+          postings.remove(token);
+        }
+      }
+    }
+  }
+
+  private static Set<String> tokenize(String text) {
+    Set<String> tokens = new HashSet<>();
+    if (text == null) {
+      return tokens;
+    }
+    String lowerCase = text.toLowerCase(Locale.ROOT);
+    int start = -1;
+    for (int i = 0; i <= lowerCase.length(); i++) {
+      boolean tokenChar = i < lowerCase.length()
+          && Character.isLetterOrDigit(lowerCase.charAt(i));
+      if (tokenChar && start < 0) {
+        start = i;
+      } else if (!tokenChar && start >= 0) {
+        tokens.add(lowerCase.substring(start, i));
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * An object found in the index
+   *
+   * @since 1.4.0
+   */
+  public static final class Hit {
+
+    private final Kind kind;
+    private final long id;
+
+    private Hit(Kind kind, long id) {
+      this.kind = kind;
+      this.id = id;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Hit)) {
+        return false;
+      }
+      Hit hit = (Hit) o;
+      return id == hit.id && kind == hit.kind;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(kind, id);
+    }
+
+    @Override
+    public String toString() {
+      return kind + ":" + id;
+    }
+  }
+}
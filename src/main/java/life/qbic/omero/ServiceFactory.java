@@ -0,0 +1,15 @@
+package life.qbic.omero;
+
+import omero.ServerError;
+import omero.gateway.exception.DSOutOfServiceException;
+
+/**
+ * Opens a new instance of a stateful OMERO service, e.g. a RawFileStore or an Exporter.
+ *
+ * @param <T> the type of the service proxy
+ * @since 1.4.0
+ */
+interface ServiceFactory<T> {
+
+  T open() throws DSOutOfServiceException, ServerError;
+}
@@ -0,0 +1,358 @@
+package life.qbic.omero;
+
+import java.util.Arrays;
+
+/**
+ * ROI shapes of one or more images stored in primitive arrays.
+ *
+ * <p>Every shape is addressed by its index. Its geometry is a slice of a shared coordinate array,
+ * whose meaning depends on the {@link ShapeType}:</p>
+ * <ul>
+ *   <li>{@link ShapeType#RECTANGLE} and {@link ShapeType#MASK}: x, y, width, height</li>
+ *   <li>{@link ShapeType#ELLIPSE}: center x, center y, radius x, radius y</li>
+ *   <li>{@link ShapeType#LINE}: x1, y1, x2, y2</li>
+ *   <li>{@link ShapeType#POINT}: x, y</li>
+ *   <li>{@link ShapeType#POLYGON} and {@link ShapeType#POLYLINE}: x and y of every point in
+ *   order</li>
+ *   <li>{@link ShapeType#OTHER}: no coordinates</li>
+ * </ul>
+ * <p>The bytes of masks are a slice of a shared mask array. A batch holds no per-shape or
+ * per-point objects.</p>
+ *
+ * @since 1.4.0
+ */
+public final class ShapeBatch {
+
+  /**
+   * The kind of shape, determining the layout of its coordinates
+   */
+  public enum ShapeType {
+    RECTANGLE, ELLIPSE, LINE, POINT, POLYGON, POLYLINE, MASK, OTHER
+  }
+
+  /**
+   * Returned for the plane index of a shape that is not bound to a plane
+   */
+  public static final int ANY_PLANE = -1;
+
+  private static final ShapeType[] TYPES = ShapeType.values();
+  // the list of points in the legacy format of polygons and polylines
+  private static final String LEGACY_POINTS = "points[";
+
+  private final int size;
+  private final long[] imageIds;
+  private final long[] roiIds;
+  private final long[] shapeIds;
+  private final byte[] types;
+  private final int[] z;
+  private final int[] t;
+  private final int[] c;
+  private final double[] coordinates;
+  private final int[] coordinateOffsets;
+  private final byte[] masks;
+  private final int[] maskOffsets;
+
+  private ShapeBatch(Builder builder) {
+    this.size = builder.size;
+    this.imageIds = Arrays.copyOf(builder.imageIds, size);
+    this.roiIds = Arrays.copyOf(builder.roiIds, size);
+    this.shapeIds = Arrays.copyOf(builder.shapeIds, size);
+    this.types = Arrays.copyOf(builder.types, size);
+    this.z = Arrays.copyOf(builder.z, size);
+    this.t = Arrays.copyOf(builder.t, size);
+    this.c = Arrays.copyOf(builder.c, size);
+    this.coordinates = Arrays.copyOf(builder.coordinates, builder.coordinateCount);
+    this.coordinateOffsets = Arrays.copyOf(builder.coordinateOffsets, size + 1);
+    this.masks = Arrays.copyOf(builder.masks, builder.maskLength);
+    this.maskOffsets = Arrays.copyOf(builder.maskOffsets, size + 1);
+  }
+
+  /**
+   * @param expectedShapes the number of shapes the batch is expected to hold
+   * @return a builder for a batch
+   */
+  public static Builder builder(int expectedShapes) {
+    return new Builder(expectedShapes);
+  }
+
+  /**
+   * @return the number of shapes in this batch
+   */
+  public int size() {
+    return size;
+  }
+
+  public long getImageId(int index) {
+    return imageIds[checkIndex(index)];
+  }
+
+  public long getRoiId(int index) {
+    return roiIds[checkIndex(index)];
+  }
+
+  public long getShapeId(int index) {
+    return shapeIds[checkIndex(index)];
+  }
+
+  public ShapeType getType(int index) {
+    return TYPES[types[checkIndex(index)]];
+  }
+
+  /**
+   * @return the z-section of the shape or {@link #ANY_PLANE}
+   */
+  public int getZ(int index) {
+    return z[checkIndex(index)];
+  }
+
+  /**
+   * @return the time point of the shape or {@link #ANY_PLANE}
+   */
+  public int getT(int index) {
+    return t[checkIndex(index)];
+  }
+
+  /**
+   * @return the channel of the shape or {@link #ANY_PLANE}
+   */
+  public int getC(int index) {
+    return c[checkIndex(index)];
+  }
+
+  /**
+   * @return the number of coordinates of the shape, twice the number of points for polygons
+   */
+  public int getCoordinateCount(int index) {
+    checkIndex(index);
+    return coordinateOffsets[index + 1] - coordinateOffsets[index];
+  }
+
+  /**
+   * @param index the index of the shape
+   * @param coordinate the index of the coordinate within the shape
+   * @return the coordinate
+   */
+  public double getCoordinate(int index, int coordinate) {
+    if (coordinate < 0 || coordinate >= getCoordinateCount(index)) {
+      throw new IndexOutOfBoundsException("Coordinate " + coordinate + " of shape " + index);
+    }
+    return coordinates[coordinateOffsets[index] + coordinate];
+  }
+
+  /**
+   * @return a copy of the coordinates of the shape
+   */
+  public double[] getCoordinates(int index) {
+    checkIndex(index);
+    return Arrays.copyOfRange(coordinates, coordinateOffsets[index],
+        coordinateOffsets[index + 1]);
+  }
+
+  /**
+   * @return a copy of the mask bytes of the shape, empty for shapes other than masks
+   */
+  public byte[] getMask(int index) {
+    checkIndex(index);
+    return Arrays.copyOfRange(masks, maskOffsets[index], maskOffsets[index + 1]);
+  }
+
+  /**
+   * Gives direct access to the coordinates of all shapes for bulk processing. The array must not
+   * be modified.
+   *
+   * @return the coordinates of all shapes
+   * @see #getCoordinateOffset(int)
+   */
+  public double[] coordinates() {
+    return coordinates;
+  }
+
+  /**
+   * @return the offset of the first coordinate of the shape in {@link #coordinates()}
+   */
+  public int getCoordinateOffset(int index) {
+    return coordinateOffsets[checkIndex(index)];
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Shape " + index + " of " + size);
+    }
+    return index;
+  }
+
+  public static final class Builder {
+
+    private int size;
+    private long[] imageIds;
+    private long[] roiIds;
+    private long[] shapeIds;
+    private byte[] types;
+    private int[] z;
+    private int[] t;
+    private int[] c;
+    private int[] coordinateOffsets;
+    private int[] maskOffsets;
+
+    private double[] coordinates;
+    private int coordinateCount;
+    private byte[] masks = new byte[0];
+    private int maskLength;
+
+    private Builder(int expectedShapes) {
+      int capacity = Math.max(1, expectedShapes);
+      this.imageIds = new long[capacity];
+      this.roiIds = new long[capacity];
+      this.shapeIds = new long[capacity];
+      this.types = new byte[capacity];
+      this.z = new int[capacity];
+      this.t = new int[capacity];
+      this.c = new int[capacity];
+      this.coordinateOffsets = new int[capacity + 1];
+      this.maskOffsets = new int[capacity + 1];
+      this.coordinates = new double[capacity * 4];
+    }
+
+    /**
+     * Starts a new shape. Its coordinates and mask bytes are added with the following calls of
+     * {@link #addCoordinate(double)} and {@link #setMask(byte[])}.
+     *
+     * @return this builder
+     */
+    public Builder addShape(long imageId, long roiId, long shapeId, ShapeType type, int theZ,
+        int theT, int theC) {
+      if (size == imageIds.length) {
+        int capacity = size * 2;
+        imageIds = Arrays.copyOf(imageIds, capacity);
+        roiIds = Arrays.copyOf(roiIds, capacity);
+        shapeIds = Arrays.copyOf(shapeIds, capacity);
+        types = Arrays.copyOf(types, capacity);
+        z = Arrays.copyOf(z, capacity);
+        t = Arrays.copyOf(t, capacity);
+        c = Arrays.copyOf(c, capacity);
+        coordinateOffsets = Arrays.copyOf(coordinateOffsets, capacity + 1);
+        maskOffsets = Arrays.copyOf(maskOffsets, capacity + 1);
+      }
+      imageIds[size] = imageId;
+      roiIds[size] = roiId;
+      shapeIds[size] = shapeId;
+      types[size] = (byte) type.ordinal();
+      z[size] = theZ;
+      t[size] = theT;
+      c[size] = theC;
+      size++;
+      coordinateOffsets[size] = coordinateCount;
+      maskOffsets[size] = maskLength;
+      return this;
+    }
+
+    /**
+     * Adds a coordinate to the last added shape.
+     *
+     * @return this builder
+     */
+    public Builder addCoordinate(double coordinate) {
+      if (size == 0) {
+        throw new IllegalStateException("No shape was added yet.");
+      }
+      if (coordinateCount == coordinates.length) {
+        coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+      }
+      coordinates[coordinateCount++] = coordinate;
+      coordinateOffsets[size] = coordinateCount;
+      return this;
+    }
+
+    /**
+     * Adds the points of a polygon or polyline to the last added shape, without creating an
+     * object per point. Points are given as "x1,y1 x2,y2 ...". Of the legacy format
+     * "points[x1,y1, x2,y2, ...] points1[...] points2[...]", only the list of points is read.
+     *
+     * @param points the points of the shape
+     * @return this builder
+     * @throws IllegalArgumentException if the points cannot be parsed, no coordinates are added
+     *     then
+     */
+    public Builder addPoints(String points) {
+      int start = 0;
+      int end = points.length();
+      int legacyStart = points.indexOf(LEGACY_POINTS);
+      if (legacyStart >= 0) {
+        start = legacyStart + LEGACY_POINTS.length();
+        end = points.indexOf(']', start);
+        if (end < 0) {
+          throw new IllegalArgumentException("Unterminated points: " + points);
+        }
+      }
+
+      int shapeStart = coordinateCount;
+      try {
+        int tokenStart = -1;
+        for (int i = start; i <= end; i++) {
+          boolean separator = i == end || points.charAt(i) == ','
+              || Character.isWhitespace(points.charAt(i));
+          if (!separator && tokenStart < 0) {
+            tokenStart = i;
+          } else if (separator && tokenStart >= 0) {
+            addCoordinate(Double.parseDouble(points.substring(tokenStart, i)));
+            tokenStart = -1;
+          }
+        }
+        if ((coordinateCount - shapeStart) % 2 != 0) {
+          throw new IllegalArgumentException("Odd number of coordinates: " + points);
+        }
+      } catch (IllegalArgumentException invalidPoints) {
+        coordinateCount = shapeStart;
+        coordinateOffsets[size] = coordinateCount;
+        throw invalidPoints;
+      }
+      return this;
+    }
+
+    /**
+     * Removes the last added shape with its coordinates and mask bytes, e.g. because its geometry
+     * turned out to be invalid.
+     *
+     * @return this builder
+     */
+    public Builder removeLastShape() {
+      if (size == 0) {
+        throw new IllegalStateException("No shape was added yet.");
+      }
+      size--;
+      coordinateCount = coordinateOffsets[size];
+      maskLength = maskOffsets[size];
+      return this;
+    }
+
+    /**
+     * Sets the mask bytes of the last added shape.
+     *
+     * @return this builder
+     */
+    public Builder setMask(byte[] mask) {
+      if (size == 0) {
+        throw new IllegalStateException("No shape was added yet.");
+      }
+      int start = maskOffsets[size - 1];
+      if (start + mask.length > masks.length) {
+        masks = Arrays.copyOf(masks, Math.max(masks.length * 2, start + mask.length));
+      }
+      System.arraycopy(mask, 0, masks, start, mask.length);
+      maskLength = start + mask.length;
+      maskOffsets[size] = maskLength;
+      return this;
+    }
+
+    /**
+     * @return the number of shapes added so far
+     */
+    public int size() {
+      return size;
+    }
+
+    public ShapeBatch build() {
+      return new ShapeBatch(this);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package life.qbic.omero;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded least recently used cache of rendered thumbnails by image id. Thumbnails expire after
+ * a fixed time, so changes of the rendering settings on the server are picked up eventually.
+ *
+ * @since 1.4.0
+ */
+final class ThumbnailCache {
+
+  private final int capacity;
+  private final long maxAgeNanos;
+  private final Map<Long, CachedThumbnail> thumbnails;
+
+  /**
+   * @param capacity the maximum number of thumbnails kept
+   * @param maxAgeMillis the time after which a cached thumbnail expires
+   */
+  ThumbnailCache(int capacity, long maxAgeMillis) {
+    this.capacity = capacity;
+    this.maxAgeNanos = maxAgeMillis * 1_000_000L;
+    this.thumbnails = new LinkedHashMap<Long, CachedThumbnail>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, CachedThumbnail> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * @return the maximum number of thumbnails kept
+   */
+  int capacity() {
+    return capacity;
+  }
+
+  /**
+   * @param imageId the omero identifier of the image
+   * @return the cached thumbnail or null if the thumbnail is not cached or expired
+   */
+  synchronized byte[] get(long imageId) {
+    CachedThumbnail cached = thumbnails.get(imageId);
+    if (cached == null) {
+      return null;
+    }
+    if (System.nanoTime() - cached.loadedNanos > maxAgeNanos) {
+      thumbnails.remove(imageId);
+      return null;
+    }
+    return cached.thumbnail;
+  }
+
+  synchronized boolean contains(long imageId) {
+    return get(imageId) != null;
+  }
+
+  synchronized void put(long imageId, byte[] thumbnail) {
+    thumbnails.put(imageId, new CachedThumbnail(thumbnail, System.nanoTime()));
+  }
+
+  synchronized void clear() {
+    thumbnails.clear();
+  }
+
+  private static final class CachedThumbnail {
+
+    private final byte[] thumbnail;
+    private final long loadedNanos;
+
+    private CachedThumbnail(byte[] thumbnail, long loadedNanos) {
+      this.thumbnail = thumbnail;
+      this.loadedNanos = loadedNanos;
+    }
+  }
+}
@@ -0,0 +1,245 @@
+package life.qbic.omero;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import omero.gateway.SecurityContext;
+
+/**
+ * Requests thumbnails of the images of datasets in the background, so that the first user opening
+ * a dataset does not wait for their generation.
+ *
+ * <p>Thumbnails are requested in batches by low priority threads, the number of batches requested
+ * at the same time is bounded. Loaded thumbnails are put into the thumbnail cache of the client.
+ * Images whose thumbnails are cached are skipped, so images evicted from the cache or expired are
+ * warmed up again with the next request. At most as many images of a dataset as the cache holds
+ * are warmed up, always the ones with the lowest ids, so that warming up a large dataset does not
+ * evict its own thumbnails.</p>
+ *
+ * <p>Datasets can be watched for a while after their creation; images imported into a watched
+ * dataset are warmed up when the dataset is polled next. The poll interval of a dataset doubles
+ * up to {@link #MAX_POLL_INTERVAL_FACTOR} times the configured interval while no images appear
+ * that the watch has not seen before; re-warming expired thumbnails does not reset it. Datasets
+ * are listed and thumbnails are loaded with the security context they were scheduled or watched
+ * with.</p>
+ *
+ * @since 1.4.0
+ */
+final class ThumbnailWarmUpScheduler {
+
+  // number of thumbnails requested with a single call
+  private static final int BATCH_SIZE = 50;
+  // the poll interval of a watched dataset grows up to this multiple of the configured interval
+  private static final int MAX_POLL_INTERVAL_FACTOR = 16;
+
+  private final BiFunction<SecurityContext, Long, Map<Long, Long>> pixelsOfDataset;
+  private final BiFunction<SecurityContext, Collection<Long>, Map<Long, byte[]>> thumbnailLoader;
+  private final ThumbnailCache cache;
+  private final long pollIntervalMillis;
+  private final long watchMillis;
+
+  private final ExecutorService workers;
+  private final ScheduledExecutorService poller;
+  // watched datasets by dataset id
+  private final Map<Long, Watch> watchedDatasets = new ConcurrentHashMap<>();
+  // images whose thumbnails are requested at the moment
+  private final Set<Long> requestedImages = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param pixelsOfDataset lists the images of a dataset, mapping image ids to pixels ids
+   * @param thumbnailLoader loads the thumbnails of the given pixels ids by pixels id
+   * @param cache receives the loaded thumbnails by image id
+   * @param concurrency the maximum number of batches requested at the same time
+   * @param pollIntervalMillis the initial interval at which watched datasets are checked for new
+   *     images
+   * @param watchMillis how long a dataset is watched after {@link #watch(SecurityContext, long)}
+   */
+  ThumbnailWarmUpScheduler(BiFunction<SecurityContext, Long, Map<Long, Long>> pixelsOfDataset,
+      BiFunction<SecurityContext, Collection<Long>, Map<Long, byte[]>> thumbnailLoader,
+      ThumbnailCache cache, int concurrency, long pollIntervalMillis, long watchMillis) {
+    this.pixelsOfDataset = pixelsOfDataset;
+    this.thumbnailLoader = thumbnailLoader;
+    this.cache = cache;
+    this.pollIntervalMillis = pollIntervalMillis;
+    this.watchMillis = watchMillis;
+    this.workers = Executors.newFixedThreadPool(Math.max(1, concurrency),
+        new DaemonThreadFactory("omero-thumbnail-warm-up", Thread.MIN_PRIORITY));
+    this.poller = Executors.newSingleThreadScheduledExecutor(
+        new DaemonThreadFactory("omero-thumbnail-poller", Thread.MIN_PRIORITY));
+    this.poller.scheduleWithFixedDelay(this::pollWatchedDatasets, pollIntervalMillis,
+        pollIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Schedules the warm-up of all images of the given datasets whose thumbnails are not cached.
+   *
+   * @param context the security context the datasets are listed with
+   * @param datasetIds the omero identifiers of the datasets
+   */
+  void schedule(SecurityContext context, Collection<Long> datasetIds) {
+    for (Long datasetId : datasetIds) {
+      workers.execute(() -> warmUp(context, datasetId));
+    }
+  }
+
+  /**
+   * Watches a dataset for new images for the configured time.
+   *
+   * @param context the security context the dataset is listed with
+   * @param datasetId the omero identifier of the dataset
+   */
+  void watch(SecurityContext context, long datasetId) {
+    watchedDatasets.put(datasetId, new Watch(context, System.currentTimeMillis()));
+  }
+
+  /**
+   * Stops all background work. Requests in progress are interrupted.
+   */
+  void shutdown() {
+    poller.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  private void pollWatchedDatasets() {
+    long now = System.currentTimeMillis();
+    watchedDatasets.values().removeIf(watch -> watch.endMillis < now);
+    for (Map.Entry<Long, Watch> watched : watchedDatasets.entrySet()) {
+      Watch watch = watched.getValue();
+      if (watch.isDue(now)) {
+        Long datasetId = watched.getKey();
+        workers.execute(() -> poll(datasetId, watch));
+      }
+    }
+  }
+
+  private void poll(long datasetId, Watch watch) {
+    Map<Long, Long> pixels = listImages(watch.context, datasetId);
+    if (pixels == null) {
+      watch.polled(Collections.emptySet());
+      return;
+    }
+    warmUp(watch.context, pixels);
+    watch.polled(pixels.keySet());
+  }
+
+  private void warmUp(SecurityContext context, long datasetId) {
+    Map<Long, Long> pixels = listImages(context, datasetId);
+    if (pixels != null) {
+      warmUp(context, pixels);
+    }
+  }
+
+  /**
+   * @return the pixels ids of the images of the dataset by image id, null if the dataset could
+   *     not be listed
+   */
+  private Map<Long, Long> listImages(SecurityContext context, long datasetId) {
+    try {
+      return pixelsOfDataset.apply(context, datasetId);
+    } catch (RuntimeException listingFailed) {
+      // warm-up is best effort, the dataset is listed again on the next request or poll
+      return null;
+    }
+  }
+
+  /**
+   * Requests the thumbnails of the images that are neither cached nor requested already
+   *
+   * @param pixels the pixels ids of the images of a dataset by image id
+   */
+  private void warmUp(SecurityContext context, Map<Long, Long> pixels) {
+    int considered = 0;
+    List<Long> batchImages = new ArrayList<>(BATCH_SIZE);
+    for (Map.Entry<Long, Long> image : new TreeMap<>(pixels).entrySet()) {
+      if (considered++ == cache.capacity()) {
+        break;
+      }
+      Long imageId = image.getKey();
+      if (cache.contains(imageId) || !requestedImages.add(imageId)) {
+        continue;
+      }
+      batchImages.add(imageId);
+      if (batchImages.size() == BATCH_SIZE) {
+        submitBatch(context, batchImages, pixels);
+        batchImages = new ArrayList<>(BATCH_SIZE);
+      }
+    }
+    if (!batchImages.isEmpty()) {
+      submitBatch(context, batchImages, pixels);
+    }
+  }
+
+  private void submitBatch(SecurityContext context, List<Long> imageIds, Map<Long, Long> pixels) {
+    workers.execute(() -> {
+      List<Long> pixelsIds = new ArrayList<>(imageIds.size());
+      for (Long imageId : imageIds) {
+        pixelsIds.add(pixels.get(imageId));
+      }
+      try {
+        Map<Long, byte[]> thumbnails = thumbnailLoader.apply(context, pixelsIds);
+        for (Long imageId : imageIds) {
+          byte[] thumbnail = thumbnails.get(pixels.get(imageId));
+          if (thumbnail != null) {
+            cache.put(imageId, thumbnail);
+          }
+        }
+      } catch (RuntimeException loadingFailed) {
+        // warm-up is best effort, the images are requested again with the next request or poll
+      } finally {
+        requestedImages.removeAll(imageIds);
+      }
+    });
+  }
+
+  /**
+   * A watched dataset, its poll interval and the images seen in it so far
+   */
+  private final class Watch {
+
+    private final SecurityContext context;
+    private final long endMillis;
+    private final Set<Long> knownImages = new HashSet<>();
+    private long intervalMillis;
+    private long nextPollMillis;
+
+    private Watch(SecurityContext context, long startMillis) {
+      this.context = context;
+      this.endMillis = startMillis + watchMillis;
+      this.intervalMillis = pollIntervalMillis;
+      this.nextPollMillis = startMillis;
+    }
+
+    /**
+     * @return true if the dataset is to be polled now, the next poll is then planned
+     */
+    private synchronized boolean isDue(long now) {
+      if (now < nextPollMillis) {
+        return false;
+      }
+      nextPollMillis = now + intervalMillis;
+      return true;
+    }
+
+    /**
+     * Resets the poll interval if images not seen before were found, doubles it otherwise
+     *
+     * @param imageIds the images found in the dataset
+     */
+    private synchronized void polled(Set<Long> imageIds) {
+      boolean foundNewImages = knownImages.addAll(imageIds);
+      intervalMillis = foundNewImages ? pollIntervalMillis
+          : Math.min(intervalMillis * 2, pollIntervalMillis * MAX_POLL_INTERVAL_FACTOR);
+    }
+  }
+}
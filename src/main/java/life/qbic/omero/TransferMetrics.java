@@ -0,0 +1,129 @@
+package life.qbic.omero;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the chunk sizes and throughput of the data transfers of a {@link BasicOMEROClient}.
+ *
+ * <p>Metrics are recorded per transfer operation, e.g. {@link #UPLOAD}. All methods are thread
+ * safe.</p>
+ *
+ * @since 1.4.0
+ */
+public class TransferMetrics {
+
+  /**
+   * Uploads of files to the RawFileStore
+   */
+  public static final String UPLOAD = "upload";
+  /**
+   * Reads of OME-TIFF files from the Exporter
+   */
+  public static final String EXPORT = "export";
+  /**
+   * Reads of original files from the RawFileStore
+   */
+  public static final String DOWNLOAD = "download";
+
+  private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+  /**
+   * Records a transferred chunk.
+   *
+   * @param operation the transfer operation
+   * @param chunkSize the number of bytes requested for the chunk
+   * @param transferredBytes the number of bytes actually transferred
+   * @param nanos the round trip time of the chunk in nanoseconds
+   */
+  void record(String operation, int chunkSize, int transferredBytes, long nanos) {
+    operations.computeIfAbsent(operation, key -> new OperationMetrics())
+        .record(chunkSize, transferredBytes, nanos);
+  }
+
+  /**
+   * @return the operations for which metrics were recorded
+   */
+  public Set<String> getOperations() {
+    return Collections.unmodifiableSet(operations.keySet());
+  }
+
+  /**
+   * @param operation the transfer operation
+   * @return the number of chunks transferred
+   */
+  public long getChunkCount(String operation) {
+    OperationMetrics metrics = operations.get(operation);
+    return metrics == null ? 0 : metrics.chunks.get();
+  }
+
+  /**
+   * @param operation the transfer operation
+   * @return the number of bytes transferred
+   */
+  public long getTransferredBytes(String operation) {
+    OperationMetrics metrics = operations.get(operation);
+    return metrics == null ? 0 : metrics.bytes.get();
+  }
+
+  /**
+   * @param operation the transfer operation
+   * @return the chunk size chosen for the most recent chunk, 0 if nothing was transferred
+   */
+  public int getLastChunkSize(String operation) {
+    OperationMetrics metrics = operations.get(operation);
+    return metrics == null ? 0 : metrics.lastChunkSize;
+  }
+
+  /**
+   * @param operation the transfer operation
+   * @return the smallest chunk size chosen so far, 0 if nothing was transferred
+   */
+  public int getMinChunkSize(String operation) {
+    OperationMetrics metrics = operations.get(operation);
+    return metrics == null ? 0 : (int) metrics.minChunkSize.get();
+  }
+
+  /**
+   * @param operation the transfer operation
+   * @return the largest chunk size chosen so far, 0 if nothing was transferred
+   */
+  public int getMaxChunkSize(String operation) {
+    OperationMetrics metrics = operations.get(operation);
+    return metrics == null ? 0 : (int) metrics.maxChunkSize.get();
+  }
+
+  /**
+   * @param operation the transfer operation
+   * @return the average throughput over all chunks in bytes per second
+   */
+  public double getThroughput(String operation) {
+    OperationMetrics metrics = operations.get(operation);
+    if (metrics == null || metrics.nanos.get() == 0) {
+      return 0;
+    }
+    return metrics.bytes.get() * 1e9 / metrics.nanos.get();
+  }
+
+  private static final class OperationMetrics {
+
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong minChunkSize = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxChunkSize = new AtomicLong();
+    private volatile int lastChunkSize;
+
+    private void record(int chunkSize, int transferredBytes, long roundTripNanos) {
+      chunks.incrementAndGet();
+      bytes.addAndGet(transferredBytes);
+      nanos.addAndGet(roundTripNanos);
+      minChunkSize.accumulateAndGet(chunkSize, Math::min);
+      maxChunkSize.accumulateAndGet(chunkSize, Math::max);
+      lastChunkSize = chunkSize;
+    }
+  }
+}
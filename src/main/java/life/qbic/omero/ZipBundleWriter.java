@@ -0,0 +1,215 @@
+package life.qbic.omero;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import omero.ServerError;
+import omero.api.RawFileStorePrx;
+import omero.gateway.exception.DSOutOfServiceException;
+
+/**
+ * Streams original files from the OMERO RawFileStore into a ZIP archive.
+ *
+ * <p>Entries are written strictly in order, while the content of the following entries is
+ * already read in parallel, each file through its own RawFileStore. Read-ahead is bounded by the
+ * number of files read at the same time and the number of bytes buffered in total, which is
+ * split evenly between the files read at the same time. Nothing is staged on local disk.</p>
+ *
+ * @since 1.4.0
+ */
+final class ZipBundleWriter {
+
+  /**
+   * The size of entries whose size is not known
+   */
+  static final long UNKNOWN_SIZE = -1L;
+
+  private static final byte[] END_OF_FILE = new byte[0];
+  private static final byte[] FAILED = new byte[0];
+
+  /**
+   * An original file to be written to the archive
+   */
+  static final class Entry {
+
+    private final String path;
+    private final long fileId;
+    private final long size;
+
+    /**
+     * @param path the path of the entry within the archive, see {@link #entryName(String)}
+     * @param fileId the omero identifier of the original file
+     * @param size the size of the original file in bytes or {@link #UNKNOWN_SIZE}
+     */
+    Entry(String path, long fileId, long size) {
+      this.path = path;
+      this.fileId = fileId;
+      this.size = size;
+    }
+  }
+
+  private final ServiceFactory<RawFileStorePrx> rawFileStores;
+  private final int readAhead;
+  // bytes buffered per file at most, no chunk is larger
+  private final int bufferedBytesPerFile;
+  private final Supplier<ChunkSizeController> chunkSizes;
+
+  /**
+   * @param rawFileStores opens the RawFileStore services the files are read with
+   * @param readAhead the maximum number of files read at the same time
+   * @param maxBufferedBytes the maximum number of bytes read ahead of the writer
+   * @param chunkSizes creates the controller choosing the chunk sizes of each file
+   */
+  ZipBundleWriter(ServiceFactory<RawFileStorePrx> rawFileStores, int readAhead,
+      int maxBufferedBytes, Supplier<ChunkSizeController> chunkSizes) {
+    this.rawFileStores = rawFileStores;
+    this.readAhead = Math.max(1, readAhead);
+    this.bufferedBytesPerFile = Math.max(1, maxBufferedBytes / this.readAhead);
+    this.chunkSizes = chunkSizes;
+  }
+
+  /**
+   * Turns a path into an entry name that stays within the directory the archive is extracted
+   * to. Backslashes are treated as separators, empty, {@code .} and {@code ..} segments as well as
+   * drive letters are dropped.
+   *
+   * @param path a path, e.g. the client path of an imported file
+   * @return a relative entry name, {@code unnamed} if nothing of the path remains
+   */
+  static String entryName(String path) {
+    StringJoiner name = new StringJoiner("/");
+    for (String segment : path.replace('\\', '/').split("/")) {
+      if (segment.isEmpty() || segment.equals(".") || segment.equals("..")
+          || segment.endsWith(":")) {
+        continue;
+      }
+      name.add(segment);
+    }
+    return name.length() == 0 ? "unnamed" : name.toString();
+  }
+
+  /**
+   * Writes the entries as ZIP archive to the output stream. The output stream is not closed.
+   *
+   * @param entries the files to write, in archive order
+   * @param outputStream the stream receiving the archive
+   * @throws IOException if writing fails or a file could not be read from the server
+   */
+  void write(List<Entry> entries, OutputStream outputStream) throws IOException {
+    ExecutorService readers =
+        Executors.newFixedThreadPool(readAhead, new DaemonThreadFactory("omero-zip-reader"));
+    Deque<Prefetch> window = new ArrayDeque<>();
+    try {
+      ZipOutputStream zip = new ZipOutputStream(outputStream);
+      int next = 0;
+      while (next < entries.size() || !window.isEmpty()) {
+        while (window.size() < readAhead && next < entries.size()) {
+          Prefetch prefetch = new Prefetch(entries.get(next++));
+          prefetch.reader = readers.submit(prefetch);
+          window.add(prefetch);
+        }
+
+        Prefetch current = window.peek();
+        zip.putNextEntry(new ZipEntry(current.entry.path));
+        byte[] chunk;
+        while ((chunk = current.chunks.take()) != END_OF_FILE) {
+          if (chunk == FAILED) {
+            throw new IOException("Could not read " + current.entry.path + " from omero",
+                current.failure);
+          }
+          zip.write(chunk);
+          current.bufferedBytes.release(chunk.length);
+        }
+        zip.closeEntry();
+        window.poll();
+      }
+      zip.finish();
+      zip.flush();
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Writing the zip bundle was interrupted", interruptedException);
+    } finally {
+      for (Prefetch prefetch : window) {
+        prefetch.reader.cancel(true);
+      }
+      readers.shutdownNow();
+    }
+  }
+
+  /**
+   * Reads one file into a bounded queue of chunks
+   */
+  private final class Prefetch implements Runnable {
+
+    private final Entry entry;
+    // unbounded, the chunks are bounded by the buffered bytes instead
+    private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+    private final Semaphore bufferedBytes = new Semaphore(bufferedBytesPerFile);
+    private volatile Exception failure;
+    private Future<?> reader;
+
+    private Prefetch(Entry entry) {
+      this.entry = entry;
+    }
+
+    @Override
+    public void run() {
+      try {
+        RawFileStorePrx rawFileStore = rawFileStores.open();
+        try {
+          rawFileStore.setFileId(entry.fileId);
+          ChunkSizeController chunkSizeController = chunkSizes.get();
+          boolean sizeKnown = entry.size != UNKNOWN_SIZE;
+          long position = 0;
+          while (!sizeKnown || position < entry.size) {
+            long remaining = sizeKnown ? entry.size - position : Long.MAX_VALUE;
+            int chunkSize = (int) Math.min(
+                Math.min(chunkSizeController.getChunkSize(), bufferedBytesPerFile), remaining);
+            bufferedBytes.acquire(chunkSize);
+            long start = System.nanoTime();
+            byte[] chunk = rawFileStore.read(position, chunkSize);
+            chunkSizeController.record(chunkSize, chunk.length, System.nanoTime() - start);
+            bufferedBytes.release(chunkSize - chunk.length);
+            if (chunk.length == 0) {
+              if (sizeKnown) {
+                // ending the entry here would silently truncate it
+                throw new IOException("RawFileStore returned no data at offset " + position
+                    + " of " + entry.size + " bytes");
+              }
+              break;
+            }
+            chunks.put(chunk);
+            position += chunk.length;
+            if (!sizeKnown && chunk.length < chunkSize) {
+              // a short read marks the end of a file of unknown size
+              break;
+            }
+          }
+        } finally {
+          rawFileStore.close();
+        }
+        chunks.put(END_OF_FILE);
+      } catch (InterruptedException interruptedException) {
+        // the archive is no longer written, nobody waits for the remaining chunks
+        Thread.currentThread().interrupt();
+      } catch (DSOutOfServiceException | ServerError | IOException | RuntimeException exception) {
+        failure = exception;
+        // the queue might be full of chunks the writer will never take after the failure
+        chunks.clear();
+        chunks.offer(FAILED);
+      }
+    }
+  }
+}
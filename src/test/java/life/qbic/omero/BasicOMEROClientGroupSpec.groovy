@@ -0,0 +1,70 @@
+package life.qbic.omero
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import omero.gateway.SecurityContext
+import spock.lang.Specification
+
+/**
+ * Tests that projects and datasets loaded by a {@link BasicOMEROClient} are kept per group
+ *
+ * @since 1.4.0
+ */
+class BasicOMEROClientGroupSpec extends Specification {
+
+  BasicOMEROClient client = new SimulatedGateway(4, 0).newClient()
+  SecurityContext otherGroup = new SecurityContext(7)
+
+  def setup() {
+    client.connect()
+  }
+
+  def "datasets are looked up in the group of the call"() {
+    when:
+    Set<Long> sessionProjects = client.loadProjects().keySet()
+    Set<Long> otherProjects = client.inGroup(otherGroup, { client.loadProjects() }).keySet()
+
+    then:
+    sessionProjects == (1L..5L) as Set
+    otherProjects == (8000L..8004L) as Set
+    client.getDatasets(1L).keySet() == (1L..4L) as Set
+    client.getDatasets(8000L).isEmpty()
+    client.inGroup(otherGroup, { client.getDatasets(8000L) }).keySet() == (8000L..8003L) as Set
+  }
+
+  def "datasets of a group whose projects were not loaded are loaded on demand"() {
+    expect:
+    client.inGroup(otherGroup, { client.getDatasets(8001L) }).keySet() == (8004L..8007L) as Set
+  }
+
+  def "groups loaded concurrently do not see each other's datasets"() {
+    given:
+    Queue<String> errors = new ConcurrentLinkedQueue<>()
+    Closure<Void> browse = { long firstId ->
+      200.times {
+        for (long projectId : client.loadProjects().keySet()) {
+          try {
+            Set<Long> datasets = client.getDatasets(projectId).keySet()
+            if (datasets.isEmpty() || datasets.any { it < firstId || it >= firstId + 20 }) {
+              errors.add("project $projectId has datasets $datasets")
+            }
+          } catch (RuntimeException exception) {
+            errors.add("project $projectId failed with $exception")
+          }
+        }
+      }
+    }
+    Thread sessionGroup = Thread.start { browse(1L) }
+    Thread otherGroupThread = Thread.start { client.inGroup(otherGroup, { browse(8000L) }) }
+
+    when:
+    sessionGroup.join()
+    otherGroupThread.join()
+
+    then:
+    errors.isEmpty()
+  }
+
+  def cleanup() {
+    client.disconnect()
+  }
+}
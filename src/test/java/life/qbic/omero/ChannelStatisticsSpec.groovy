@@ -0,0 +1,69 @@
+package life.qbic.omero
+
+import spock.lang.Specification
+
+/**
+ * Tests the quantile estimation of {@link ChannelStatistics}
+ *
+ * @since 1.4.0
+ */
+class ChannelStatisticsSpec extends Specification {
+
+  def "quantiles are interpolated within the histogram bins"() {
+    given:
+    ChannelStatistics statistics = new ChannelStatistics(0, "DAPI", 0, 100, [0, 10, 0, 10] as int[])
+
+    expect:
+    statistics.getQuantile(fraction) == expected
+
+    where:
+    fraction | expected
+    0        | 25.0d
+    0.25     | 37.5d
+    0.5      | 50.0d
+    0.75     | 87.5d
+    1        | 100.0d
+  }
+
+  def "quantiles without histogram are interpolated between the global extremes"() {
+    given:
+    ChannelStatistics statistics = new ChannelStatistics(1, "GFP", 10, 20, new int[0])
+
+    expect:
+    !statistics.hasHistogram()
+    statistics.getBinWidth() == 0d
+    statistics.getQuantile(0.5) == 15d
+  }
+
+  def "a histogram without pixels is treated like a missing histogram"() {
+    given:
+    ChannelStatistics statistics = new ChannelStatistics(0, "DAPI", 0, 100, [0, 0] as int[])
+
+    expect:
+    statistics.getQuantile(0.3) == 30d
+  }
+
+  def "the histogram is copied"() {
+    given:
+    int[] histogram = [1, 2, 3] as int[]
+    ChannelStatistics statistics = new ChannelStatistics(0, "DAPI", 0, 3, histogram)
+
+    when:
+    histogram[0] = 100
+    statistics.getHistogram()[1] = 100
+
+    then:
+    statistics.getHistogram() == [1, 2, 3] as int[]
+  }
+
+  def "invalid fractions are rejected"() {
+    when:
+    new ChannelStatistics(0, "DAPI", 0, 100, new int[0]).getQuantile(fraction)
+
+    then:
+    thrown(IllegalArgumentException)
+
+    where:
+    fraction << [-0.1d, 1.1d]
+  }
+}
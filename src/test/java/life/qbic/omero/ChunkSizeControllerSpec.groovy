@@ -0,0 +1,96 @@
+package life.qbic.omero
+
+import spock.lang.Specification
+
+/**
+ * Tests the chunk size adaption of {@link ChunkSizeController}
+ *
+ * @since 1.4.0
+ */
+class ChunkSizeControllerSpec extends Specification {
+
+  private static final long MILLIS = 1_000_000L
+
+  def "the initial chunk size is kept within the limits"() {
+    expect:
+    new ChunkSizeController("upload", new TransferMetrics(), initial, 64, 1024).getChunkSize() ==
+        expected
+
+    where:
+    initial | expected
+    16      | 64
+    128     | 128
+    4096    | 1024
+  }
+
+  def "invalid limits are rejected"() {
+    when:
+    new ChunkSizeController("upload", new TransferMetrics(), 128, min, max)
+
+    then:
+    thrown(IllegalArgumentException)
+
+    where:
+    min | max
+    0   | 1024
+    256 | 128
+  }
+
+  def "the chunk size grows while the throughput improves"() {
+    given:
+    ChunkSizeController controller = new ChunkSizeController("upload", new TransferMetrics(),
+        128, 64, 1024)
+
+    when:
+    3.times { controller.record(128, 128, 10 * MILLIS) }
+
+    then:
+    controller.getChunkSize() == 256
+
+    when: "larger chunks take the same time"
+    3.times { controller.record(256, 256, 10 * MILLIS) }
+
+    then:
+    controller.getChunkSize() == 512
+  }
+
+  def "the chunk size shrinks again when the throughput drops"() {
+    given:
+    ChunkSizeController controller = new ChunkSizeController("upload", new TransferMetrics(),
+        128, 64, 1024)
+    3.times { controller.record(128, 128, 10 * MILLIS) }
+
+    when: "larger chunks are much slower"
+    3.times { controller.record(256, 256, 100 * MILLIS) }
+
+    then:
+    controller.getChunkSize() == 128
+  }
+
+  def "slow chunks always shrink the chunk size"() {
+    given:
+    ChunkSizeController controller = new ChunkSizeController("upload", new TransferMetrics(),
+        512, 64, 1024)
+
+    when:
+    controller.record(512, 512, 3_000 * MILLIS)
+
+    then:
+    controller.getChunkSize() == 256
+  }
+
+  def "the chunk size never exceeds the maximum"() {
+    given:
+    ChunkSizeController controller = new ChunkSizeController("upload", new TransferMetrics(),
+        512, 64, 1024)
+
+    when:
+    10.times {
+      int size = controller.getChunkSize()
+      3.times { controller.record(size, size, 10 * MILLIS) }
+    }
+
+    then:
+    controller.getChunkSize() == 1024
+  }
+}
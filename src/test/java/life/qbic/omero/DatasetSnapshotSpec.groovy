@@ -0,0 +1,113 @@
+package life.qbic.omero
+
+import spock.lang.Specification
+
+/**
+ * Tests the packed storage and the lookups of {@link DatasetSnapshot}
+ *
+ * @since 1.4.0
+ */
+class DatasetSnapshotSpec extends Specification {
+
+  def "images are stored with their dimensions, names and channel names"() {
+    when:
+    DatasetSnapshot snapshot = DatasetSnapshot.builder(7L, 1)
+        .addImage(100L, "first", "a description", 512, 256, 3, 2, 2, ["DAPI", "GFP"])
+        .addImage(200L, "second", null, 64, 64, 1, 1, 1, [])
+        .build()
+
+    then:
+    snapshot.getDatasetId() == 7L
+    snapshot.size() == 2
+    snapshot.getImageIds() == [100L, 200L] as long[]
+
+    snapshot.getName(0) == "first"
+    snapshot.getDescription(0) == "a description"
+    snapshot.getSizeX(0) == 512
+    snapshot.getSizeY(0) == 256
+    snapshot.getSizeZ(0) == 3
+    snapshot.getSizeT(0) == 2
+    snapshot.getSizeC(0) == 2
+    snapshot.getChannelNames(0) == ["DAPI", "GFP"]
+    snapshot.getChannelName(0, 1) == "GFP"
+
+    snapshot.getName(1) == "second"
+    snapshot.getDescription(1) == ""
+    snapshot.getChannelCount(1) == 0
+  }
+
+  def "the builder grows beyond the expected number of images"() {
+    given:
+    DatasetSnapshot.Builder builder = DatasetSnapshot.builder(1L, 1)
+
+    when:
+    (0..<100).each {
+      builder.addImage(1000L + it, "image " + it, "", it, it, 1, 1, 3, ["c0", "c1", "c2"])
+    }
+    DatasetSnapshot snapshot = builder.build()
+
+    then:
+    snapshot.size() == 100
+    (0..<100).every {
+      snapshot.indexOf(1000L + it) == it && snapshot.getName(it) == "image " + it &&
+          snapshot.getSizeX(it) == it && snapshot.getChannelName(it, 2) == "c2"
+    }
+  }
+
+  def "images are looked up by their id"() {
+    given:
+    DatasetSnapshot snapshot = DatasetSnapshot.builder(1L, 2)
+        .addImage(42L, "a", "", 1, 1, 1, 1, 0, [])
+        .addImage(43L, "b", "", 1, 1, 1, 1, 0, [])
+        .build()
+
+    expect:
+    snapshot.indexOf(43L) == 1
+    snapshot.contains(42L)
+    !snapshot.contains(44L)
+    snapshot.indexOf(44L) == -1
+  }
+
+  def "positions outside the snapshot are rejected"() {
+    given:
+    DatasetSnapshot snapshot = DatasetSnapshot.builder(1L, 1)
+        .addImage(1L, "a", "", 1, 1, 1, 1, 1, ["c"])
+        .build()
+
+    when:
+    snapshot.getName(position)
+
+    then:
+    thrown(IndexOutOfBoundsException)
+
+    where:
+    position << [-1, 1]
+  }
+
+  def "unknown channels are rejected"() {
+    given:
+    DatasetSnapshot snapshot = DatasetSnapshot.builder(1L, 1)
+        .addImage(1L, "a", "", 1, 1, 1, 1, 1, ["c"])
+        .build()
+
+    when:
+    snapshot.getChannelName(0, 1)
+
+    then:
+    thrown(IndexOutOfBoundsException)
+  }
+
+  def "images added after building do not change the snapshot"() {
+    given:
+    DatasetSnapshot.Builder builder = DatasetSnapshot.builder(1L, 4)
+        .addImage(1L, "a", "", 1, 1, 1, 1, 0, [])
+    DatasetSnapshot snapshot = builder.build()
+
+    when:
+    builder.addImage(2L, "b", "", 1, 1, 1, 1, 0, [])
+
+    then:
+    snapshot.size() == 1
+    !snapshot.contains(2L)
+  }
+}
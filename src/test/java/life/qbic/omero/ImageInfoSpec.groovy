@@ -0,0 +1,74 @@
+package life.qbic.omero
+
+import spock.lang.Specification
+
+/**
+ * Tests that {@link BasicOMEROClient#getImageInfo(long, long)} answers the same with and without
+ * request coalescing
+ *
+ * @since 1.4.0
+ */
+class ImageInfoSpec extends Specification {
+
+  BasicOMEROClient client = new SimulatedGateway(4, 0).newClient()
+
+  def setup() {
+    client.connect()
+  }
+
+  def cleanup() {
+    client.disconnect()
+  }
+
+  def "the information of an image of the dataset is loaded"() {
+    given:
+    if (coalesced) {
+      client.enableRequestCoalescing(1, 10)
+    }
+
+    when:
+    HashMap<String, String> imageInfo = client.getImageInfo(1L, 201L)
+
+    then:
+    imageInfo.name == "image 201"
+    imageInfo.size == "1024 x 1024 x 10"
+    imageInfo.tps == "1"
+    imageInfo.channels == "channel 0, channel 1, channel 2"
+
+    where:
+    coalesced << [false, true]
+  }
+
+  def "a missing image is reported"() {
+    given:
+    if (coalesced) {
+      client.enableRequestCoalescing(1, 10)
+    }
+
+    when:
+    client.getImageInfo(1L, 99L)
+
+    then:
+    NoSuchElementException exception = thrown()
+    exception.message == "Image 99 was not found."
+
+    where:
+    coalesced << [false, true]
+  }
+
+  def "without coalescing an image of another dataset is reported as missing"() {
+    when:
+    client.getImageInfo(2L, 201L)
+
+    then:
+    thrown(NoSuchElementException)
+  }
+
+  def "coalesced requests look images up by id only"() {
+    given:
+    client.enableRequestCoalescing(1, 10)
+
+    expect:
+    client.getImageInfo(2L, 201L).name == "image 201"
+  }
+}
@@ -0,0 +1,96 @@
+package life.qbic.omero
+
+import spock.lang.Specification
+
+/**
+ * Tests the percentiles computed by {@link LatencyTracker}
+ *
+ * @since 1.4.0
+ */
+class LatencyTrackerSpec extends Specification {
+
+  def "percentiles are taken from the recorded latencies"() {
+    given:
+    LatencyTracker tracker = new LatencyTracker(100)
+    (1..100).each { tracker.record("thumbnail", it * 10L) }
+
+    expect:
+    tracker.getPercentile("thumbnail", percentile) == expected
+
+    where:
+    percentile | expected
+    0          | 10L
+    0.5        | 500L
+    0.95       | 950L
+    1          | 1000L
+  }
+
+  def "operations without latencies have no percentile"() {
+    given:
+    LatencyTracker tracker = new LatencyTracker(10)
+    tracker.record("image", 5L)
+
+    expect:
+    tracker.getPercentile("thumbnail", 0.5) == -1L
+    tracker.getSampleCount("thumbnail") == 0
+    tracker.getOperations() == ["image"] as Set
+  }
+
+  def "old latencies are dropped from the window"() {
+    given:
+    LatencyTracker tracker = new LatencyTracker(10)
+    10.times { tracker.record("image", 1000L) }
+
+    when:
+    10.times { tracker.record("image", 10L) }
+
+    then:
+    tracker.getSampleCount("image") == 10
+    tracker.getPercentile("image", 1) == 10L
+  }
+
+  def "the percentile follows new latencies after a twentieth of the window was recorded"() {
+    given:
+    LatencyTracker tracker = new LatencyTracker(100)
+    100.times { tracker.record("image", 10L) }
+    assert tracker.getPercentile("image", 1) == 10L
+
+    when:
+    4.times { tracker.record("image", 1000L) }
+
+    then: "the sorted copy is kept"
+    tracker.getPercentile("image", 1) == 10L
+
+    when:
+    tracker.record("image", 1000L)
+
+    then:
+    tracker.getPercentile("image", 1) == 1000L
+    tracker.getPercentile("image", 0.95) == 10L
+  }
+
+  def "the percentile follows every latency while the window fills up"() {
+    given:
+    LatencyTracker tracker = new LatencyTracker(1000)
+
+    when:
+    tracker.record("image", 10L)
+
+    then:
+    tracker.getPercentile("image", 1) == 10L
+
+    when:
+    tracker.record("image", 20L)
+
+    then:
+    tracker.getPercentile("image", 1) == 20L
+  }
+
+  def "invalid percentiles are rejected"() {
+    when:
+    new LatencyTracker(10).getPercentile("image", 1.5)
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+}
@@ -0,0 +1,57 @@
+package life.qbic.omero
+
+import spock.lang.Specification
+
+/**
+ * Tests the lookup of positions by {@link LongIntIndex}
+ *
+ * @since 1.4.0
+ */
+class LongIntIndexSpec extends Specification {
+
+  def "every indexed key is found at its position"() {
+    given:
+    long[] keys = (0..<1000).collect { it * 7919L - 500_000L } as long[]
+
+    when:
+    LongIntIndex index = new LongIntIndex(keys, keys.length)
+
+    then:
+    (0..<keys.length).every { index.get(keys[it]) == it }
+  }
+
+  def "keys that are not indexed are not found"() {
+    given:
+    LongIntIndex index = new LongIntIndex([1L, 2L, 3L] as long[], 3)
+
+    expect:
+    index.get(key) == -1
+
+    where:
+    key << [0L, 4L, -1L, Long.MAX_VALUE, Long.MIN_VALUE]
+  }
+
+  def "only the leading keys are indexed"() {
+    when:
+    LongIntIndex index = new LongIntIndex([10L, 20L, 30L] as long[], 2)
+
+    then:
+    index.get(10L) == 0
+    index.get(20L) == 1
+    index.get(30L) == -1
+  }
+
+  def "the first occurrence of a duplicate key is indexed"() {
+    when:
+    LongIntIndex index = new LongIntIndex([5L, 6L, 5L] as long[], 3)
+
+    then:
+    index.get(5L) == 0
+    index.get(6L) == 1
+  }
+
+  def "an empty index finds nothing"() {
+    expect:
+    new LongIntIndex(new long[0], 0).get(0L) == -1
+  }
+}
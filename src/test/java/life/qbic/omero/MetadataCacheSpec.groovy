@@ -0,0 +1,145 @@
+package life.qbic.omero
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+/**
+ * Tests the replay, truncation and compaction of the log of {@link MetadataCache}
+ *
+ * @since 1.4.0
+ */
+class MetadataCacheSpec extends Specification {
+
+  @Rule
+  TemporaryFolder folder = new TemporaryFolder()
+
+  def "entries are replayed when the cache is opened again"() {
+    given:
+    File file = new File(folder.getRoot(), "cache.bin")
+    MetadataCache cache = new MetadataCache(file)
+    cache.put(Kind.PROJECT, MetadataCache.NO_PARENT, 1L, "project", "a project", 10L)
+    cache.put(Kind.DATASET, 1L, 2L, "dataset", null, MetadataCache.UNKNOWN_UPDATE)
+    cache.put(Kind.DATASET, 1L, 3L, "removed", null, MetadataCache.UNKNOWN_UPDATE)
+    cache.put(Kind.PROJECT, MetadataCache.NO_PARENT, 1L, "renamed", "a project", 11L)
+    cache.remove(Kind.DATASET, 1L, 3L)
+    cache.close()
+
+    when:
+    MetadataCache reopened = new MetadataCache(file)
+
+    then:
+    reopened.size() == 2
+    reopened.get(Kind.PROJECT, MetadataCache.NO_PARENT, 1L).getName() == "renamed"
+    reopened.get(Kind.PROJECT, MetadataCache.NO_PARENT, 1L).getUpdated() == 11L
+    reopened.get(Kind.DATASET, 1L, 2L).getDescription() == null
+    reopened.getChildren(Kind.DATASET, 1L)*.getId() == [2L]
+
+    cleanup:
+    reopened?.close()
+  }
+
+  def "an incompletely written record is discarded and truncated"() {
+    given:
+    File file = new File(folder.getRoot(), "cache.bin")
+    MetadataCache cache = new MetadataCache(file)
+    cache.put(Kind.IMAGE, 5L, 6L, "image", "", 1L)
+    cache.close()
+    long validLength = file.length()
+    // a PUT record of which only the operation and the kind were written
+    file.append([1, 2] as byte[])
+
+    when:
+    MetadataCache reopened = new MetadataCache(file)
+    reopened.close()
+
+    then:
+    reopened.get(Kind.IMAGE, 5L, 6L).getName() == "image"
+    file.length() == validLength
+  }
+
+  def "files that are not a metadata cache are rejected and left untouched"() {
+    given:
+    File file = folder.newFile("notes.txt")
+    file.text = "important notes"
+
+    when:
+    new MetadataCache(file)
+
+    then:
+    thrown(IllegalArgumentException)
+    file.text == "important notes"
+  }
+
+  def "empty files are initialised as new caches"() {
+    given:
+    File file = folder.newFile("empty.bin")
+
+    when:
+    MetadataCache cache = new MetadataCache(file)
+    cache.close()
+
+    then:
+    cache.isEmpty()
+    file.length() == 4
+  }
+
+  def "compaction keeps the live entries only"() {
+    given:
+    File file = new File(folder.getRoot(), "cache.bin")
+    MetadataCache cache = new MetadataCache(file)
+    (0..<100).each { cache.put(Kind.PROJECT, MetadataCache.NO_PARENT, 1L, "name " + it, "", it) }
+    cache.put(Kind.DATASET, 1L, 2L, "dataset", "", 1L)
+    cache.flush()
+    long uncompactedLength = file.length()
+
+    when:
+    cache.compact()
+    cache.put(Kind.DATASET, 1L, 3L, "written after compaction", "", 1L)
+    cache.close()
+    MetadataCache reopened = new MetadataCache(file)
+
+    then:
+    file.length() < uncompactedLength
+    reopened.size() == 3
+    reopened.get(Kind.PROJECT, MetadataCache.NO_PARENT, 1L).getName() == "name 99"
+    reopened.get(Kind.DATASET, 1L, 3L).getName() == "written after compaction"
+
+    cleanup:
+    reopened?.close()
+  }
+
+  def "logs with many superseded records are compacted when opened"() {
+    given:
+    File file = new File(folder.getRoot(), "cache.bin")
+    MetadataCache cache = new MetadataCache(file)
+    (0..<2000).each { cache.put(Kind.IMAGE, 1L, 1L, "name " + it, "", it) }
+    cache.close()
+    long uncompactedLength = file.length()
+
+    when:
+    MetadataCache reopened = new MetadataCache(file)
+    reopened.close()
+
+    then:
+    file.length() < uncompactedLength / 100
+    reopened.get(Kind.IMAGE, 1L, 1L).getName() == "name 1999"
+  }
+
+  def "writes to a closed cache are ignored"() {
+    given:
+    File file = new File(folder.getRoot(), "cache.bin")
+    MetadataCache cache = new MetadataCache(file)
+    cache.close()
+
+    when:
+    cache.put(Kind.PROJECT, MetadataCache.NO_PARENT, 1L, "project", "", 1L)
+    cache.remove(Kind.PROJECT, MetadataCache.NO_PARENT, 1L)
+    cache.flush()
+
+    then:
+    cache.isClosed()
+    cache.isEmpty()
+    file.length() == 4
+  }
+}
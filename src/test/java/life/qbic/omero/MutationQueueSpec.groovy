@@ -0,0 +1,164 @@
+package life.qbic.omero
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import omero.ServerError
+import omero.gateway.SecurityContext
+import omero.model.IObject
+import omero.model.Project
+import omero.rtypes
+import spock.lang.Specification
+import spock.lang.Timeout
+
+/**
+ * Tests the batching, the one-by-one fallback and the completion of futures of
+ * {@link MutationQueue}
+ *
+ * @since 1.4.0
+ */
+@Timeout(10)
+class MutationQueueSpec extends Specification {
+
+  /**
+   * Saves objects locally, assigning increasing identifiers and rejecting batches holding a
+   * project named "rejected"
+   */
+  static class SavingClient extends BasicOMEROClient {
+
+    final List<List<String>> batches = Collections.synchronizedList([])
+    Closure onSave = {}
+    boolean failingHook
+    private long nextId = 1
+
+    SavingClient() {
+      super("user", "password", "localhost", 4064, "default")
+    }
+
+    @Override
+    List<IObject> saveObjects(SecurityContext context, List<IObject> objects) {
+      onSave()
+      List<String> names = objects.collect { ((Project) it).getName().getValue() }
+      batches.add(names)
+      if (names.contains("rejected")) {
+        throw new ServerError()
+      }
+      objects.each { it.setId(rtypes.rlong(nextId++)) }
+      return objects
+    }
+
+    @Override
+    void projectCreated(SecurityContext context, long projectId, String name, String desc) {
+      if (failingHook) {
+        throw new IllegalStateException("hook failed")
+      }
+    }
+  }
+
+  SavingClient client = new SavingClient()
+
+  def "queued mutations are saved with one request per batch"() {
+    given:
+    MutationQueue queue = new MutationQueue(client, new SecurityContext(1), 10, 60000)
+
+    when:
+    List<CompletableFuture<Long>> results = (1..4).collect { queue.createProject("p$it", "") }
+    queue.flush()
+
+    then:
+    client.batches == [["p1", "p2", "p3", "p4"]]
+    results*.getNow(-1L) == [1L, 2L, 3L, 4L]
+    queue.size() == 0
+
+    cleanup:
+    queue.close()
+  }
+
+  def "a full queue is flushed without waiting for the delay"() {
+    given:
+    MutationQueue queue = new MutationQueue(client, new SecurityContext(1), 2, 60000)
+
+    when:
+    CompletableFuture<Long> first = queue.createProject("p1", "")
+    CompletableFuture<Long> second = queue.createProject("p2", "")
+
+    then:
+    second.get(5, TimeUnit.SECONDS) == 2L
+    first.getNow(-1L) == 1L
+    client.batches == [["p1", "p2"]]
+
+    cleanup:
+    queue.close()
+  }
+
+  def "mutations of a rejected batch are saved one by one"() {
+    given:
+    MutationQueue queue = new MutationQueue(client, new SecurityContext(1), 10, 60000)
+
+    when:
+    CompletableFuture<Long> first = queue.createProject("p1", "")
+    CompletableFuture<Long> rejected = queue.createProject("rejected", "")
+    CompletableFuture<Long> third = queue.createProject("p3", "")
+    queue.close()
+
+    then:
+    client.batches == [["p1", "rejected", "p3"], ["p1"], ["rejected"], ["p3"]]
+    first.getNow(-1L) == 1L
+    third.getNow(-1L) == 2L
+
+    when:
+    rejected.getNow(-1L)
+
+    then:
+    Exception exception = thrown()
+    exception.cause.message == "Omero store interaction failed."
+    exception.cause.cause instanceof ServerError
+  }
+
+  def "a failing hook of the client does not fail the saved mutation"() {
+    given:
+    client.failingHook = true
+    MutationQueue queue = new MutationQueue(client, new SecurityContext(1), 10, 60000)
+
+    when:
+    CompletableFuture<Long> result = queue.createProject("p1", "")
+    queue.close()
+
+    then:
+    result.getNow(-1L) == 1L
+  }
+
+  def "continuations may flush the queue and queue chained mutations"() {
+    given:
+    MutationQueue queue = new MutationQueue(client, new SecurityContext(1), 10, 60000)
+
+    when:
+    CompletableFuture<Long> chained = queue.createProject("p1", "")
+        .thenCompose { queue.createProject("p2 after $it", "") }
+    queue.createProject("p3", "").thenRun { queue.flush() }
+    queue.close()
+
+    then:
+    chained.getNow(-1L) == 3L
+    client.batches == [["p1", "p3"], ["p2 after 1"]]
+  }
+
+  def "flushing while a batch is saved fails fast"() {
+    given:
+    MutationQueue queue = new MutationQueue(client, new SecurityContext(1), 10, 60000)
+    client.onSave = { queue.flush() }
+
+    when:
+    CompletableFuture<Long> result = queue.createProject("p1", "")
+    queue.flush()
+    result.get()
+
+    then:
+    ExecutionException exception = thrown()
+    exception.cause instanceof IllegalStateException
+
+    cleanup:
+    client.onSave = {}
+    queue.close()
+  }
+}
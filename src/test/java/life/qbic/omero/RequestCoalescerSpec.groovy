@@ -0,0 +1,110 @@
+package life.qbic.omero
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import spock.lang.Specification
+
+/**
+ * Tests the batching of concurrent requests by {@link RequestCoalescer}
+ *
+ * @since 1.4.0
+ */
+class RequestCoalescerSpec extends Specification {
+
+  private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(50)
+
+  ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor()
+  Executor direct = { Runnable runnable -> runnable.run() } as Executor
+  List<Collection<Long>> batches = []
+
+  def cleanup() {
+    timer.shutdownNow()
+  }
+
+  private RequestCoalescer<Long, String> coalescer(int maxBatchSize) {
+    return new RequestCoalescer<Long, String>({ Collection<Long> keys ->
+      batches.add(new ArrayList<>(keys))
+      keys.findAll { it > 0 }.collectEntries { [(it): "value " + it] }
+    }, WINDOW_NANOS, maxBatchSize, timer, direct)
+  }
+
+  def "requests within the window are loaded with one call"() {
+    given:
+    RequestCoalescer<Long, String> coalescer = coalescer(10)
+
+    when:
+    CompletableFuture<String> first = coalescer.request(1L)
+    CompletableFuture<String> second = coalescer.request(2L)
+    CompletableFuture<String> same = coalescer.request(1L)
+
+    then:
+    first.get(1, TimeUnit.SECONDS) == "value 1"
+    second.get(1, TimeUnit.SECONDS) == "value 2"
+    same.is(first)
+    batches == [[1L, 2L]]
+  }
+
+  def "keys without result complete with null"() {
+    given:
+    RequestCoalescer<Long, String> coalescer = coalescer(10)
+
+    when:
+    CompletableFuture<String> missing = coalescer.request(-1L)
+    coalescer.flush()
+
+    then:
+    missing.isDone()
+    missing.get() == null
+  }
+
+  def "a full batch is loaded without waiting for the window"() {
+    given:
+    RequestCoalescer<Long, String> coalescer = coalescer(2)
+
+    when:
+    coalescer.request(1L)
+    CompletableFuture<String> second = coalescer.request(2L)
+    CompletableFuture<String> third = coalescer.request(3L)
+
+    then:
+    second.isDone()
+    !third.isDone()
+    third.get(1, TimeUnit.SECONDS) == "value 3"
+    batches == [[1L, 2L], [3L]]
+  }
+
+  def "a failing batch fails all of its requests"() {
+    given:
+    IllegalStateException failure = new IllegalStateException("server unavailable")
+    RequestCoalescer<Long, String> coalescer = new RequestCoalescer<Long, String>(
+        { Collection<Long> keys -> throw failure }, WINDOW_NANOS, 10, timer, direct)
+
+    when:
+    CompletableFuture<String> first = coalescer.request(1L)
+    CompletableFuture<String> second = coalescer.request(2L)
+    coalescer.flush()
+    first.get()
+
+    then:
+    ExecutionException thrown = thrown()
+    thrown.getCause().is(failure)
+    second.isCompletedExceptionally()
+  }
+
+  def "requests are answered on their own once the timer is shut down"() {
+    given:
+    RequestCoalescer<Long, String> coalescer = coalescer(10)
+    timer.shutdownNow()
+
+    when:
+    CompletableFuture<String> request = coalescer.request(1L)
+
+    then:
+    request.isDone()
+    request.get() == "value 1"
+  }
+}
@@ -0,0 +1,64 @@
+package life.qbic.omero
+
+import omero.ServerError
+import omero.api.ExporterPrx
+import spock.lang.Specification
+
+/**
+ * Tests the retries of the OME-TIFF export of {@link ResumableTransfer}
+ *
+ * @since 1.4.0
+ */
+class ResumableTransferSpec extends Specification {
+
+  private static final byte[] TIFF = (1..10).collect { it as byte } as byte[]
+
+  File target = File.createTempFile("export", ".ome.tif")
+  ChunkSizeController chunks = new ChunkSizeController("export", new TransferMetrics(), 4, 4, 4)
+  int closedExporters = 0
+
+  def cleanup() {
+    target.delete()
+  }
+
+  def "an exporter failing to generate the OME-TIFF is replaced"() {
+    given:
+    List<ExporterPrx> exporters = [exporter { throw new ServerError() },
+                                   exporter { (long) TIFF.length }]
+
+    when:
+    long length = ResumableTransfer.export({ exporters.remove(0) } as ServiceFactory, 1L, target,
+        chunks, 3)
+
+    then:
+    length == TIFF.length
+    target.bytes == TIFF
+    exporters.isEmpty()
+    closedExporters == 2
+  }
+
+  def "an empty OME-TIFF is not exported"() {
+    given:
+    List<ExporterPrx> exporters = [exporter { 0L }, exporter { 0L }]
+
+    when:
+    ResumableTransfer.export({ exporters.remove(0) } as ServiceFactory, 1L, target, chunks, 2)
+
+    then:
+    IOException exception = thrown()
+    exception.cause.message == "Exporter generated no OME-TIFF for image 1"
+    exporters.isEmpty()
+    closedExporters == 2
+  }
+
+  private ExporterPrx exporter(Closure<Long> generateTiff) {
+    return [
+        addImage    : { long imageId -> },
+        generateTiff: generateTiff,
+        read        : { long position, int size ->
+          Arrays.copyOfRange(TIFF, (int) position, (int) position + size)
+        },
+        close       : { closedExporters++ }
+    ] as ExporterPrx
+  }
+}
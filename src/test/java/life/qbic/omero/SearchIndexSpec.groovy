@@ -0,0 +1,82 @@
+package life.qbic.omero
+
+import spock.lang.Specification
+
+/**
+ * Tests the prefix search and the updates of {@link SearchIndex}
+ *
+ * @since 1.4.0
+ */
+class SearchIndexSpec extends Specification {
+
+  SearchIndex index = new SearchIndex()
+
+  def setup() {
+    index.index(Kind.PROJECT, 1L, SearchIndex.NAME, "Mouse Brain Atlas")
+    index.index(Kind.DATASET, 2L, SearchIndex.NAME, "brain-slices_2023")
+    index.index(Kind.IMAGE, 3L, SearchIndex.DESCRIPTION, "Confocal scan of the Cortex")
+  }
+
+  def "every query token has to be a prefix of a token of the object"() {
+    expect:
+    index.search(query).collect { it.toString() } as Set == expected as Set
+
+    where:
+    query            || expected
+    "brain"          || ["PROJECT:1", "DATASET:2"]
+    "BR"             || ["PROJECT:1", "DATASET:2"]
+    "mouse brain"    || ["PROJECT:1"]
+    "slices 2023"    || ["DATASET:2"]
+    "cort conf"      || ["IMAGE:3"]
+    "rain"           || []
+    "brain cortex"   || []
+    " - "            || []
+  }
+
+  def "indexing a field again replaces its text"() {
+    when:
+    index.index(Kind.PROJECT, 1L, SearchIndex.NAME, "Zebrafish")
+
+    then:
+    index.search("mouse").isEmpty()
+    index.search("zebra")*.getId() == [1L]
+  }
+
+  def "tokens stay indexed while another field of the object holds them"() {
+    given:
+    index.index(Kind.PROJECT, 1L, SearchIndex.DESCRIPTION, "atlas of the brain")
+
+    when:
+    index.index(Kind.PROJECT, 1L, SearchIndex.NAME, "Mouse")
+
+    then:
+    index.search("atlas")*.getId() == [1L]
+  }
+
+  def "added text is kept together with the text indexed before"() {
+    when:
+    index.add(Kind.IMAGE, 3L, SearchIndex.ANNOTATIONS, "stain DAPI")
+    index.add(Kind.IMAGE, 3L, SearchIndex.ANNOTATIONS, "objective 63x")
+
+    then:
+    index.search("dapi 63x")*.getId() == [3L]
+  }
+
+  def "removed objects are no longer found"() {
+    when:
+    index.remove(Kind.DATASET, 2L)
+
+    then:
+    index.search("brain")*.getKind() == [Kind.PROJECT]
+    index.size() == 2
+  }
+
+  def "objects whose fields are all cleared are dropped"() {
+    when:
+    index.index(Kind.IMAGE, 3L, SearchIndex.DESCRIPTION, null)
+
+    then:
+    index.size() == 2
+    index.search("confocal").isEmpty()
+  }
+}
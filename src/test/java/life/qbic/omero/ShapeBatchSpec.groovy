@@ -0,0 +1,116 @@
+package life.qbic.omero
+
+import life.qbic.omero.ShapeBatch.ShapeType
+import spock.lang.Specification
+
+/**
+ * Tests the coordinate and mask layout of {@link ShapeBatch} and the parsing of polygon points
+ *
+ * @since 1.4.0
+ */
+class ShapeBatchSpec extends Specification {
+
+  def "coordinates and masks are sliced per shape"() {
+    given:
+    ShapeBatch.Builder builder = ShapeBatch.builder(1)
+    builder.addShape(1L, 10L, 100L, ShapeType.RECTANGLE, 0, 0, ShapeBatch.ANY_PLANE)
+        .addCoordinate(1).addCoordinate(2).addCoordinate(3).addCoordinate(4)
+    builder.addShape(1L, 10L, 101L, ShapeType.OTHER, 1, 2, 3)
+    builder.addShape(2L, 11L, 102L, ShapeType.MASK, 0, 0, 0)
+        .addCoordinate(5).addCoordinate(6).addCoordinate(7).addCoordinate(8)
+        .setMask([1, 2, 3] as byte[])
+
+    when:
+    ShapeBatch batch = builder.build()
+
+    then:
+    batch.size() == 3
+    batch.getCoordinates(0) == [1d, 2d, 3d, 4d] as double[]
+    batch.getCoordinateCount(1) == 0
+    batch.getCoordinateOffset(2) == 4
+    batch.getCoordinate(2, 3) == 8d
+    batch.getMask(0).length == 0
+    batch.getMask(2) == [1, 2, 3] as byte[]
+    batch.getShapeId(1) == 101L
+    batch.getType(2) == ShapeType.MASK
+    batch.getC(0) == ShapeBatch.ANY_PLANE
+    batch.getT(1) == 2
+  }
+
+  def "indices outside of the batch are rejected"() {
+    given:
+    ShapeBatch batch = ShapeBatch.builder(1)
+        .addShape(1L, 10L, 100L, ShapeType.POINT, 0, 0, 0).addCoordinate(1).addCoordinate(2)
+        .build()
+
+    when:
+    batch.getCoordinate(shape, coordinate)
+
+    then:
+    thrown(IndexOutOfBoundsException)
+
+    where:
+    shape | coordinate
+    1     | 0
+    0     | 2
+    0     | -1
+  }
+
+  def "points are parsed in both formats"() {
+    given:
+    ShapeBatch.Builder builder = ShapeBatch.builder(1)
+    builder.addShape(1L, 10L, 100L, ShapeType.POLYGON, 0, 0, 0).addPoints(points)
+
+    expect:
+    builder.build().getCoordinates(0) == expected as double[]
+
+    where:
+    points                                                  | expected
+    "1,2 3.5,4 5,6"                                         | [1, 2, 3.5, 4, 5, 6]
+    "  1, 2   3,4 "                                         | [1, 2, 3, 4]
+    "points[1,2, 3,4] points1[1,2, 3,4] points2[1,2, 3,4]" | [1, 2, 3, 4]
+    ""                                                      | []
+  }
+
+  def "unparseable points add no coordinates"() {
+    given:
+    ShapeBatch.Builder builder = ShapeBatch.builder(1)
+    builder.addShape(1L, 10L, 100L, ShapeType.POINT, 0, 0, 0).addCoordinate(7).addCoordinate(8)
+    builder.addShape(1L, 10L, 101L, ShapeType.POLYGON, 0, 0, 0)
+
+    when:
+    builder.addPoints(points)
+
+    then:
+    thrown(IllegalArgumentException)
+
+    when:
+    ShapeBatch batch = builder.build()
+
+    then:
+    batch.getCoordinateCount(1) == 0
+    batch.getCoordinates(0) == [7d, 8d] as double[]
+
+    where:
+    points << ["1,2 a,b", "1,2 3", "points[1,2 3,4"]
+  }
+
+  def "the last shape can be removed"() {
+    given:
+    ShapeBatch.Builder builder = ShapeBatch.builder(1)
+    builder.addShape(1L, 10L, 100L, ShapeType.POINT, 0, 0, 0).addCoordinate(1).addCoordinate(2)
+    builder.addShape(1L, 10L, 101L, ShapeType.MASK, 0, 0, 0).addCoordinate(3)
+        .setMask([9] as byte[])
+
+    when:
+    builder.removeLastShape()
+    builder.addShape(1L, 10L, 102L, ShapeType.POINT, 0, 0, 0).addCoordinate(5).addCoordinate(6)
+    ShapeBatch batch = builder.build()
+
+    then:
+    batch.size() == 2
+    batch.getShapeId(1) == 102L
+    batch.getCoordinates(1) == [5d, 6d] as double[]
+    batch.getMask(1).length == 0
+  }
+}
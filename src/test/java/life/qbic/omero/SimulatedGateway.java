@@ -0,0 +1,378 @@
+package life.qbic.omero;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import omero.RList;
+import omero.RLong;
+import omero.RType;
+import omero.api.IAdminPrx;
+import omero.api.IContainerPrx;
+import omero.api.IPixelsPrx;
+import omero.api.IQueryPrx;
+import omero.api.RawFileStorePrx;
+import omero.api.ThumbnailStorePrx;
+import omero.gateway.Gateway;
+import omero.gateway.LoginCredentials;
+import omero.gateway.SecurityContext;
+import omero.gateway.model.ExperimenterData;
+import omero.log.SimpleLogger;
+import omero.model.ChannelI;
+import omero.model.DatasetI;
+import omero.model.ExperimenterGroupI;
+import omero.model.ExperimenterI;
+import omero.model.FilesetEntryI;
+import omero.model.FilesetI;
+import omero.model.IObject;
+import omero.model.Image;
+import omero.model.ImageI;
+import omero.model.LogicalChannelI;
+import omero.model.OriginalFileI;
+import omero.model.PixelsI;
+import omero.model.PixelsTypeI;
+import omero.model.ProjectI;
+import omero.sys.EventContext;
+import omero.sys.Parameters;
+
+/**
+ * A gateway whose OMERO services are simulated locally, so that a {@link BasicOMEROClient} and the
+ * facilities of the gateway run unchanged without a server.
+ *
+ * <p>The services are proxies answering every call after a log-normally distributed service time
+ * with model objects of a fixed hierarchy of projects, datasets and images. Every other group
+ * holds as many projects and datasets with different identifiers, but no images. A small share
+ * of the calls stalls for much longer, as calls queued behind a busy server thread do. The number
+ * of calls served at the same time is bounded by the number of server threads, so the simulated
+ * server saturates under load like a real one. Calls the simulation does not know fail with an
+ * {@link UnsupportedOperationException}.</p>
+ *
+ * @since 1.4.0
+ */
+public class SimulatedGateway extends Gateway {
+
+  private static final int PROJECTS = 5;
+  private static final int DATASETS_PER_PROJECT = 4;
+  private static final int IMAGES_PER_DATASET = 200;
+  private static final int CHANNELS = 3;
+  private static final int FILES_PER_IMAGE = 2;
+  private static final int FILE_SIZE = 2 * 1024 * 1024;
+  private static final int THUMBNAIL_SIZE = 12 * 1024;
+  private static final long GROUP_ID = 3L;
+  // share of calls stalling behind a busy server thread
+  private static final double STALL_PROBABILITY = 0.005;
+  private static final int STALL_FACTOR = 20;
+
+  /**
+   * Service time of a simulated call
+   */
+  private static final class Profile {
+
+    private final double medianMillis;
+    private final double sigma;
+
+    private Profile(double medianMillis, double sigma) {
+      this.medianMillis = medianMillis;
+      this.sigma = sigma;
+    }
+  }
+
+  /**
+   * Answers a call of a simulated service
+   */
+  private interface Answer {
+
+    Object answer(Object[] args) throws Exception;
+  }
+
+  private final Semaphore serverThreads;
+  private final Map<String, Profile> profiles = new HashMap<>();
+  private final Profile defaultProfile;
+  private volatile String sessionUuid;
+
+  /**
+   * @param serverThreads the number of calls the simulated server serves at the same time
+   * @param latencyScale scales all service times, e.g. 0.1 for a fast local server
+   */
+  public SimulatedGateway(int serverThreads, double latencyScale) {
+    super(new SimpleLogger());
+    this.serverThreads = new Semaphore(Math.max(1, serverThreads), true);
+    this.defaultProfile = new Profile(1 * latencyScale, 0.3);
+    profiles.put("loadContainerHierarchy", new Profile(60 * latencyScale, 0.4));
+    profiles.put("getImages", new Profile(30 * latencyScale, 0.4));
+    profiles.put("retrievePixDescription", new Profile(10 * latencyScale, 0.4));
+    profiles.put("getThumbnail", new Profile(12 * latencyScale, 0.6));
+    profiles.put("getThumbnailSet", new Profile(40 * latencyScale, 0.5));
+    profiles.put("findAllByQuery", new Profile(20 * latencyScale, 0.4));
+    profiles.put("read", new Profile(15 * latencyScale, 0.8));
+  }
+
+  /**
+   * @return a client loading all data through this gateway
+   */
+  public BasicOMEROClient newClient() {
+    return new BasicOMEROClient(this, "load", "load", "localhost", 4064, "default");
+  }
+
+  @Override
+  public ExperimenterData connect(LoginCredentials credentials) {
+    ExperimenterI user = new ExperimenterI(2L, true);
+    user.setOmeName(omero.rtypes.rstring("load"));
+    ExperimenterGroupI group = new ExperimenterGroupI(GROUP_ID, true);
+    group.setName(omero.rtypes.rstring("load"));
+    user.linkExperimenterGroup(group);
+    sessionUuid = UUID.randomUUID().toString();
+    return new ExperimenterData(user);
+  }
+
+  @Override
+  public boolean isConnected() {
+    return sessionUuid != null;
+  }
+
+  @Override
+  public void disconnect() {
+    sessionUuid = null;
+  }
+
+  @Override
+  public String getSessionId(ExperimenterData user) {
+    return sessionUuid;
+  }
+
+  @Override
+  public IAdminPrx getAdminService(SecurityContext context) {
+    Map<String, Answer> answers = new HashMap<>();
+    answers.put("getEventContext", args -> {
+      EventContext eventContext = new EventContext();
+      eventContext.sessionUuid = sessionUuid;
+      return eventContext;
+    });
+    answers.put("ice_getCommunicator", args -> local(Ice.Communicator.class,
+        "getProperties", communicatorArgs -> local(Ice.Properties.class,
+            "getPropertyAsIntWithDefault", propertyArgs -> propertyArgs[1])));
+    return service(IAdminPrx.class, answers);
+  }
+
+  @Override
+  public IContainerPrx getPojosService(SecurityContext context) {
+    Map<String, Answer> answers = new HashMap<>();
+    answers.put("loadContainerHierarchy", args -> projects(context.getGroupID()));
+    answers.put("getImages", args -> {
+      List<Image> images = new ArrayList<>();
+      boolean ofDatasets = ((String) args[0]).endsWith("Dataset");
+      for (Object id : (List<?>) args[1]) {
+        long parentId = (Long) id;
+        if (!ofDatasets) {
+          if (imageExists(parentId)) {
+            images.add(image(parentId));
+          }
+        } else if (parentId >= 1 && parentId <= PROJECTS * DATASETS_PER_PROJECT) {
+          for (int i = 0; i < IMAGES_PER_DATASET; i++) {
+            images.add(image(parentId * IMAGES_PER_DATASET + i));
+          }
+        }
+      }
+      return images;
+    });
+    return service(IContainerPrx.class, answers);
+  }
+
+  @Override
+  public IPixelsPrx getPixelsService(SecurityContext context) {
+    Map<String, Answer> answers = new HashMap<>();
+    // pixels share the id of their image
+    answers.put("retrievePixDescription", args -> image((Long) args[0]).getPixels(0));
+    return service(IPixelsPrx.class, answers);
+  }
+
+  @Override
+  public IQueryPrx getQueryService(SecurityContext context) {
+    Map<String, Answer> answers = new HashMap<>();
+    // only the channel query of batched image information and the fileset query of zip exports
+    // are simulated
+    answers.put("findAllByQuery", args -> {
+      boolean ofPixels = ((String) args[0]).startsWith("select p from Pixels");
+      List<IObject> results = new ArrayList<>();
+      RType ids = ((Parameters) args[1]).map.get("ids");
+      for (RType id : ((RList) ids).getValue()) {
+        long objectId = ((RLong) id).getValue();
+        if (imageExists(objectId)) {
+          // pixels share the id of their image
+          results.add(ofPixels ? image(objectId).getPixels(0) : imageWithFileset(objectId));
+        }
+      }
+      return results;
+    });
+    return service(IQueryPrx.class, answers);
+  }
+
+  @Override
+  public ThumbnailStorePrx getThumbnailService(SecurityContext context) {
+    Map<String, Answer> answers = new HashMap<>();
+    answers.put("setPixelsId", args -> true);
+    answers.put("getThumbnail", args -> new byte[THUMBNAIL_SIZE]);
+    answers.put("getThumbnailSet", args -> {
+      Map<Long, byte[]> thumbnails = new HashMap<>();
+      for (Object pixelsId : (List<?>) args[2]) {
+        thumbnails.put((Long) pixelsId, new byte[THUMBNAIL_SIZE]);
+      }
+      return thumbnails;
+    });
+    answers.put("close", args -> null);
+    return service(ThumbnailStorePrx.class, answers);
+  }
+
+  @Override
+  public RawFileStorePrx getRawFileService(SecurityContext context) {
+    Map<String, Answer> answers = new HashMap<>();
+    answers.put("setFileId", args -> null);
+    answers.put("size", args -> (long) FILE_SIZE);
+    answers.put("read", args -> new byte[(int) Math.max(0,
+        Math.min((Integer) args[1], FILE_SIZE - (Long) args[0]))]);
+    answers.put("close", args -> null);
+    return service(RawFileStorePrx.class, answers);
+  }
+
+  private static List<IObject> projects(long groupId) {
+    long firstId = groupId == GROUP_ID ? 1 : (groupId + 1) * 1000;
+    List<IObject> projects = new ArrayList<>(PROJECTS);
+    for (int project = 0; project < PROJECTS; project++) {
+      ProjectI projectObject = new ProjectI(firstId + project, true);
+      projectObject.setName(omero.rtypes.rstring("project " + (firstId + project)));
+      for (int dataset = 0; dataset < DATASETS_PER_PROJECT; dataset++) {
+        long datasetId = firstId + project * DATASETS_PER_PROJECT + dataset;
+        DatasetI datasetObject = new DatasetI(datasetId, true);
+        datasetObject.setName(omero.rtypes.rstring("dataset " + datasetId));
+        projectObject.linkDataset(datasetObject);
+      }
+      projects.add(projectObject);
+    }
+    return projects;
+  }
+
+  private static boolean imageExists(long imageId) {
+    return imageId >= IMAGES_PER_DATASET
+        && imageId < (PROJECTS * DATASETS_PER_PROJECT + 1) * IMAGES_PER_DATASET;
+  }
+
+  private static ImageI image(long imageId) {
+    ImageI image = new ImageI(imageId, true);
+    image.setName(omero.rtypes.rstring("image " + imageId));
+    PixelsI pixels = new PixelsI(imageId, true);
+    pixels.setSizeX(omero.rtypes.rint(1024));
+    pixels.setSizeY(omero.rtypes.rint(1024));
+    pixels.setSizeZ(omero.rtypes.rint(10));
+    pixels.setSizeT(omero.rtypes.rint(1));
+    pixels.setSizeC(omero.rtypes.rint(CHANNELS));
+    PixelsTypeI pixelsType = new PixelsTypeI();
+    pixelsType.setValue(omero.rtypes.rstring("uint16"));
+    pixels.setPixelsType(pixelsType);
+    for (int channel = 0; channel < CHANNELS; channel++) {
+      LogicalChannelI logicalChannel = new LogicalChannelI();
+      logicalChannel.setName(omero.rtypes.rstring("channel " + channel));
+      ChannelI channelObject = new ChannelI();
+      channelObject.setLogicalChannel(logicalChannel);
+      pixels.addChannel(channelObject);
+    }
+    image.addPixels(pixels);
+    return image;
+  }
+
+  private static ImageI imageWithFileset(long imageId) {
+    ImageI image = image(imageId);
+    FilesetI fileset = new FilesetI(imageId, true);
+    for (int file = 0; file < FILES_PER_IMAGE; file++) {
+      long fileId = imageId * FILES_PER_IMAGE + file;
+      OriginalFileI originalFile = new OriginalFileI(fileId, true);
+      originalFile.setName(omero.rtypes.rstring("file_" + fileId + ".tif"));
+      originalFile.setSize(omero.rtypes.rlong(FILE_SIZE));
+      FilesetEntryI entry = new FilesetEntryI();
+      entry.setOriginalFile(originalFile);
+      entry.setClientPath(omero.rtypes.rstring("image_" + imageId + "/file_" + fileId + ".tif"));
+      fileset.addFilesetEntry(entry);
+    }
+    image.setFileset(fileset);
+    return image;
+  }
+
+  /**
+   * Creates a simulated remote service, answering every call after its service time
+   */
+  private <T> T service(Class<T> type, Map<String, Answer> answers) {
+    return proxy(type, (method, args) -> {
+      Answer answer = answers.get(method.getName());
+      if (answer == null) {
+        throw new UnsupportedOperationException(
+            type.getSimpleName() + "." + method.getName() + " is not simulated");
+      }
+      simulateServiceTime(method.getName());
+      return answer.answer(args);
+    });
+  }
+
+  /**
+   * Creates a simulated local object of the Ice runtime with a single method answered at once
+   */
+  private static <T> T local(Class<T> type, String methodName, Answer answer) {
+    return proxy(type, (method, args) -> {
+      if (!method.getName().equals(methodName)) {
+        throw new UnsupportedOperationException(
+            type.getSimpleName() + "." + method.getName() + " is not simulated");
+      }
+      return answer.answer(args);
+    });
+  }
+
+  private interface Handler {
+
+    Object handle(Method method, Object[] args) throws Exception;
+  }
+
+  private static <T> T proxy(Class<T> type, Handler handler) {
+    InvocationHandler invocationHandler = (proxy, method, args) -> {
+      if (method.getDeclaringClass() == Object.class) {
+        switch (method.getName()) {
+          case "equals":
+            return proxy == args[0];
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          default:
+            return "simulated " + type.getSimpleName();
+        }
+      }
+      try {
+        return handler.handle(method, args);
+      } catch (InvocationTargetException invocationTargetException) {
+        throw invocationTargetException.getCause();
+      }
+    };
+    return type.cast(Proxy.newProxyInstance(SimulatedGateway.class.getClassLoader(),
+        new Class<?>[]{type}, invocationHandler));
+  }
+
+  private void simulateServiceTime(String methodName) throws InterruptedException {
+    Profile profile = profiles.getOrDefault(methodName, defaultProfile);
+    Random random = ThreadLocalRandom.current();
+    double millis = profile.medianMillis * Math.exp(profile.sigma * random.nextGaussian());
+    if (random.nextDouble() < STALL_PROBABILITY) {
+      millis *= STALL_FACTOR;
+    }
+
+    serverThreads.acquire();
+    try {
+      long nanos = (long) (millis * 1_000_000);
+      Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+    } finally {
+      serverThreads.release();
+    }
+  }
+}
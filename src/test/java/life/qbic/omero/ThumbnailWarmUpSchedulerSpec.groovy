@@ -0,0 +1,91 @@
+package life.qbic.omero
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.BiFunction
+import omero.gateway.SecurityContext
+import spock.lang.Specification
+
+/**
+ * Tests the warm-up and the polling of watched datasets of {@link ThumbnailWarmUpScheduler}
+ *
+ * @since 1.4.0
+ */
+class ThumbnailWarmUpSchedulerSpec extends Specification {
+
+  SecurityContext context = new SecurityContext(1)
+  AtomicInteger listings = new AtomicInteger()
+  // image ids mapped to pixels ids
+  Map<Long, Long> images = Collections.synchronizedMap([:])
+  BiFunction<SecurityContext, Long, Map<Long, Long>> pixelsOfDataset = { context, datasetId ->
+    listings.incrementAndGet()
+    return new HashMap<>(images)
+  }
+  BiFunction<SecurityContext, Collection<Long>, Map<Long, byte[]>> thumbnailLoader = {
+    context, pixelsIds -> pixelsIds.collectEntries { [(it): new byte[1]] }
+  }
+
+  def "at most as many images as the cache holds are warmed up"() {
+    given:
+    (1L..25L).each { images[it] = it + 100 }
+    ThumbnailCache cache = new ThumbnailCache(10, 60000)
+    ThumbnailWarmUpScheduler scheduler =
+        new ThumbnailWarmUpScheduler(pixelsOfDataset, thumbnailLoader, cache, 2, 60000, 0)
+
+    when:
+    scheduler.schedule(context, [1L])
+    Thread.sleep(500)
+
+    then:
+    (1L..10L).every { cache.contains(it) }
+    (11L..25L).every { !cache.contains(it) }
+
+    cleanup:
+    scheduler.shutdown()
+  }
+
+  def "expiring thumbnails do not reset the poll interval of an unchanged dataset"() {
+    given:
+    (1L..5L).each { images[it] = it + 100 }
+    // thumbnails expire before every poll
+    ThumbnailCache cache = new ThumbnailCache(10, 1)
+    ThumbnailWarmUpScheduler scheduler =
+        new ThumbnailWarmUpScheduler(pixelsOfDataset, thumbnailLoader, cache, 2, 20, 1500)
+
+    when:
+    scheduler.watch(context, 1L)
+    Thread.sleep(1500)
+
+    then: "polls after 20, 40, 80, 160, 320 and then every 320 ms"
+    listings.get() < 15
+
+    cleanup:
+    scheduler.shutdown()
+  }
+
+  def "new images reset the poll interval"() {
+    given:
+    ThumbnailCache cache = new ThumbnailCache(100, 60000)
+    ThumbnailWarmUpScheduler scheduler =
+        new ThumbnailWarmUpScheduler(pixelsOfDataset, thumbnailLoader, cache, 2, 20, 10000)
+
+    when:
+    scheduler.watch(context, 1L)
+    Thread.sleep(1000)
+    int listingsWhileUnchanged = listings.get()
+    Thread importer = Thread.start {
+      for (long imageId = 1; imageId <= 20; imageId++) {
+        images[imageId] = imageId + 100
+        Thread.sleep(30)
+      }
+    }
+    importer.join()
+    Thread.sleep(400)
+
+    then: "the dataset is polled more often while images are imported"
+    (1L..20L).every { cache.contains(it) }
+    listings.get() - listingsWhileUnchanged > 6
+
+    cleanup:
+    scheduler.shutdown()
+  }
+}
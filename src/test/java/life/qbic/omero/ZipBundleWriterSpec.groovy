@@ -0,0 +1,93 @@
+package life.qbic.omero
+
+import java.util.zip.ZipInputStream
+import omero.api.RawFileStorePrx
+import spock.lang.Specification
+
+/**
+ * Tests the archives written by {@link ZipBundleWriter}
+ *
+ * @since 1.4.0
+ */
+class ZipBundleWriterSpec extends Specification {
+
+  private static final byte[] CONTENT = (1..10).collect { it as byte } as byte[]
+
+  ByteArrayOutputStream archive = new ByteArrayOutputStream()
+
+  def "files are written in order"() {
+    given:
+    ZipBundleWriter writer = writer(CONTENT.length)
+    List<ZipBundleWriter.Entry> entries = [new ZipBundleWriter.Entry("a/first.tif", 1L, 10L),
+                                           new ZipBundleWriter.Entry("second.tif", 2L,
+                                               ZipBundleWriter.UNKNOWN_SIZE)]
+
+    when:
+    writer.write(entries, archive)
+
+    then:
+    Map<String, byte[]> files = archivedFiles()
+    files.keySet() as List == ["a/first.tif", "second.tif"]
+    files.values().every { it == CONTENT }
+  }
+
+  def "a file ending before its known size fails the archive"() {
+    given:
+    ZipBundleWriter writer = writer(4)
+
+    when:
+    writer.write([new ZipBundleWriter.Entry("truncated.tif", 1L, 10L)], archive)
+
+    then:
+    IOException exception = thrown()
+    exception.message == "Could not read truncated.tif from omero"
+    exception.cause.message == "RawFileStore returned no data at offset 4 of 10 bytes"
+  }
+
+  def "entry names stay within the extraction directory"() {
+    expect:
+    ZipBundleWriter.entryName(path) == expected
+
+    where:
+    path                    | expected
+    "C:\\data\\image.tif"   | "data/image.tif"
+    "../../etc/passwd"      | "etc/passwd"
+    "/a/./b//c.tif"         | "a/b/c.tif"
+    ".."                    | "unnamed"
+  }
+
+  /**
+   * @return a writer reading every file from a RawFileStore holding the first bytes of the
+   *     content
+   */
+  private static ZipBundleWriter writer(int storedBytes) {
+    ServiceFactory<RawFileStorePrx> rawFileStores = {
+      [
+          setFileId: { long fileId -> },
+          read     : { long position, int length ->
+            Arrays.copyOfRange(CONTENT, (int) Math.min(position, storedBytes),
+                (int) Math.min(position + length, storedBytes))
+          },
+          close    : {}
+      ] as RawFileStorePrx
+    } as ServiceFactory
+    return new ZipBundleWriter(rawFileStores, 2, 12,
+        { new ChunkSizeController("zip", new TransferMetrics(), 3, 3, 3) })
+  }
+
+  private Map<String, byte[]> archivedFiles() {
+    Map<String, byte[]> files = [:]
+    ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))
+    def entry
+    while ((entry = zip.getNextEntry()) != null) {
+      ByteArrayOutputStream content = new ByteArrayOutputStream()
+      byte[] buffer = new byte[64]
+      int length
+      while ((length = zip.read(buffer)) > 0) {
+        content.write(buffer, 0, length)
+      }
+      files[entry.name] = content.toByteArray()
+    }
+    return files
+  }
+}
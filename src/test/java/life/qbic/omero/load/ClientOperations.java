@@ -0,0 +1,64 @@
+package life.qbic.omero.load;
+
+/**
+ * The client operations of the portal traffic replayed by the {@link LoadHarness}.
+ *
+ * <p>Implementations must be thread safe, the harness calls them from many threads at once.</p>
+ *
+ * @since 1.4.0
+ */
+public interface ClientOperations extends AutoCloseable {
+
+  /**
+   * The operations of the portal traffic mix
+   */
+  enum Operation {
+    LIST_PROJECTS("list-projects"),
+    LIST_IMAGES("list-images"),
+    THUMBNAIL("thumbnail"),
+    IMAGE_INFO("image-info"),
+    EXPORT("export");
+
+    private final String label;
+
+    Operation(String label) {
+      this.label = label;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+
+    public static Operation fromLabel(String label) {
+      for (Operation operation : values()) {
+        if (operation.label.equals(label.trim())) {
+          return operation;
+        }
+      }
+      throw new IllegalArgumentException("Unknown operation " + label);
+    }
+  }
+
+  /**
+   * @return the omero identifiers of the datasets the operations work on
+   */
+  long[] getDatasetIds();
+
+  /**
+   * @param datasetId the omero identifier of a dataset
+   * @return the omero identifiers of the images of the dataset
+   */
+  long[] getImageIds(long datasetId);
+
+  /**
+   * Runs one operation.
+   *
+   * @param operation the operation
+   * @param datasetId the dataset the operation works on
+   * @param imageId the image the operation works on, ignored by listings
+   */
+  void run(Operation operation, long datasetId, long imageId) throws Exception;
+
+  @Override
+  void close();
+}
@@ -0,0 +1,360 @@
+package life.qbic.omero.load;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import life.qbic.omero.BasicOMEROClient;
+import life.qbic.omero.SimulatedGateway;
+import life.qbic.omero.load.ClientOperations.Operation;
+
+/**
+ * Replays a concurrent mix of portal operations and reports throughput, latency percentiles and
+ * allocations per operation, and the first failure of every operation that failed.
+ *
+ * <p>The workload is either a weighted random mix of operations, run by a fixed number of
+ * threads with exponentially distributed think times, or a recorded trace replayed at its
+ * original pace. The operations run through a {@link BasicOMEROClient}, by default against a
+ * {@link SimulatedGateway} simulating the latency of the OMERO services; with
+ * {@code -Dload.target=omero} against a real server.</p>
+ *
+ * <p>Run it with Maven:</p>
+ * <pre>
+ * mvn -P load test-compile exec:java -Dload.threads=64 -Dload.duration=60
+ * </pre>
+ *
+ * <p>Configuration, as system properties:</p>
+ * <ul>
+ *   <li>{@code load.target} - {@code simulated} (default) or {@code omero}</li>
+ *   <li>{@code load.threads} - number of client threads, default 16</li>
+ *   <li>{@code load.duration} - measured seconds, default 30</li>
+ *   <li>{@code load.warmup} - seconds run before measuring, default 5</li>
+ *   <li>{@code load.thinkTime} - mean think time between operations in milliseconds, default
+ *   50</li>
+ *   <li>{@code load.mix} - operation weights, default {@value #DEFAULT_MIX}</li>
+ *   <li>{@code load.trace} - a trace file to replay instead of the mix, one
+ *   {@code offsetMillis,operation,datasetId,imageId} line per request</li>
+ *   <li>{@code load.serverThreads}, {@code load.latencyScale} - capacity and speed of the
+ *   simulated server, default 32 and 1.0</li>
+ *   <li>{@code omero.host}, {@code omero.port}, {@code omero.user}, {@code omero.password},
+ *   {@code omero.group} - the server of the {@code omero} target</li>
+ *   <li>{@code load.datasets} - comma separated datasets the operations work on, default all
+ *   datasets of the target</li>
+ * </ul>
+ *
+ * <p>Allocations are the bytes allocated by the calling thread during an operation, as reported
+ * by the HotSpot thread MX bean; allocations of background threads of the client are not
+ * included.</p>
+ *
+ * @since 1.4.0
+ */
+public class LoadHarness {
+
+  static final String DEFAULT_MIX =
+      "list-projects=5,list-images=15,thumbnail=50,image-info=25,export=5";
+
+  private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+  /**
+   * A recorded request
+   */
+  private static final class TraceEntry {
+
+    private final long offsetMillis;
+    private final Operation operation;
+    private final long datasetId;
+    private final long imageId;
+
+    private TraceEntry(long offsetMillis, Operation operation, long datasetId, long imageId) {
+      this.offsetMillis = offsetMillis;
+      this.operation = operation;
+      this.datasetId = datasetId;
+      this.imageId = imageId;
+    }
+  }
+
+  private final ClientOperations operations;
+  private final int threads;
+  private final long durationMillis;
+  private final long warmupMillis;
+  private final long thinkTimeMillis;
+  private final Operation[] mixOperations;
+  private final double[] mixWeights;
+  private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+
+  private long measuredNanos;
+
+  /**
+   * @param operations the operations under load
+   * @param threads the number of client threads
+   * @param durationMillis the measured time of a mix run
+   * @param warmupMillis the time run before measuring
+   * @param thinkTimeMillis the mean time a thread waits between two operations of a mix run
+   * @param mix the operation weights, e.g. {@value #DEFAULT_MIX}
+   */
+  public LoadHarness(ClientOperations operations, int threads, long durationMillis,
+      long warmupMillis, long thinkTimeMillis, String mix) {
+    this.operations = operations;
+    this.threads = Math.max(1, threads);
+    this.durationMillis = durationMillis;
+    this.warmupMillis = warmupMillis;
+    this.thinkTimeMillis = thinkTimeMillis;
+
+    String[] weights = mix.split(",");
+    this.mixOperations = new Operation[weights.length];
+    this.mixWeights = new double[weights.length];
+    double total = 0;
+    for (int i = 0; i < weights.length; i++) {
+      String[] weight = weights[i].split("=");
+      mixOperations[i] = Operation.fromLabel(weight[0]);
+      total += Double.parseDouble(weight[1].trim());
+      mixWeights[i] = total;
+    }
+    for (int i = 0; i < mixWeights.length; i++) {
+      mixWeights[i] /= total;
+    }
+    for (Operation operation : Operation.values()) {
+      stats.put(operation, new OperationStats());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String trace = System.getProperty("load.trace");
+    try (ClientOperations operations = createOperations()) {
+      LoadHarness harness = new LoadHarness(operations,
+          Integer.getInteger("load.threads", 16),
+          TimeUnit.SECONDS.toMillis(Long.getLong("load.duration", 30)),
+          TimeUnit.SECONDS.toMillis(Long.getLong("load.warmup", 5)),
+          Long.getLong("load.thinkTime", 50),
+          System.getProperty("load.mix", DEFAULT_MIX));
+      if (trace != null) {
+        harness.replay(readTrace(trace));
+      } else {
+        harness.run();
+      }
+      harness.report(System.out);
+    }
+  }
+
+  private static ClientOperations createOperations() {
+    String target = System.getProperty("load.target", "simulated");
+    BasicOMEROClient client;
+    if (target.equals("simulated")) {
+      client = new SimulatedGateway(Integer.getInteger("load.serverThreads", 32),
+          Double.parseDouble(System.getProperty("load.latencyScale", "1.0"))).newClient();
+    } else if (target.equals("omero")) {
+      client = new BasicOMEROClient(System.getProperty("omero.user"),
+          System.getProperty("omero.password"), System.getProperty("omero.host"),
+          Integer.getInteger("omero.port", 4064), System.getProperty("omero.group", "default"));
+    } else {
+      throw new IllegalArgumentException("Unknown load target " + target);
+    }
+    client.connect();
+    return new OmeroClientOperations(client, datasetIds(client));
+  }
+
+  /**
+   * @return the datasets configured with {@code load.datasets}, all datasets of the client if
+   *     none are configured
+   */
+  private static long[] datasetIds(BasicOMEROClient client) {
+    String datasets = System.getProperty("load.datasets", "").trim();
+    if (!datasets.isEmpty()) {
+      return Arrays.stream(datasets.split(",")).map(String::trim).filter(id -> !id.isEmpty())
+          .mapToLong(Long::parseLong).toArray();
+    }
+    long[] datasetIds = client.loadProjects().keySet().stream()
+        .flatMap(projectId -> client.getDatasets(projectId).keySet().stream())
+        .mapToLong(Long::longValue).toArray();
+    if (datasetIds.length == 0) {
+      throw new IllegalArgumentException("No datasets found, set load.datasets");
+    }
+    return datasetIds;
+  }
+
+  private static List<TraceEntry> readTrace(String path) throws IOException {
+    List<TraceEntry> entries = new ArrayList<>();
+    for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+      if (line.trim().isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split(",");
+      entries.add(new TraceEntry(Long.parseLong(fields[0].trim()),
+          Operation.fromLabel(fields[1]), Long.parseLong(fields[2].trim()),
+          fields.length > 3 ? Long.parseLong(fields[3].trim()) : 0));
+    }
+    entries.sort((first, second) -> Long.compare(first.offsetMillis, second.offsetMillis));
+    return entries;
+  }
+
+  /**
+   * Runs the operation mix with the configured number of threads for the warm-up and the
+   * measured time.
+   */
+  public void run() throws InterruptedException {
+    long[] datasetIds = operations.getDatasetIds();
+    long start = System.nanoTime();
+    long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+    long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+    runThreads(() -> {
+      Random random = ThreadLocalRandom.current();
+      while (System.nanoTime() - end < 0) {
+        Operation operation = nextOperation(random.nextDouble());
+        long datasetId = datasetIds[random.nextInt(datasetIds.length)];
+        long[] imageIds = operations.getImageIds(datasetId);
+        long imageId = imageIds.length > 0 ? imageIds[random.nextInt(imageIds.length)] : 0;
+        execute(operation, datasetId, imageId, System.nanoTime() - measureFrom >= 0);
+        if (thinkTimeMillis > 0) {
+          sleep((long) (-Math.log(1 - random.nextDouble()) * thinkTimeMillis));
+        }
+      }
+    });
+    measuredNanos = end - measureFrom;
+  }
+
+  /**
+   * Replays recorded requests at their recorded offsets, requests within the warm-up time are
+   * not measured. Requests are sent by the configured number of threads, a request is delayed
+   * if all threads are busy.
+   *
+   * @param trace the recorded requests ordered by offset
+   */
+  private void replay(List<TraceEntry> trace) throws InterruptedException {
+    AtomicInteger next = new AtomicInteger();
+    long start = System.nanoTime();
+    runThreads(() -> {
+      int index;
+      while ((index = next.getAndIncrement()) < trace.size()) {
+        TraceEntry entry = trace.get(index);
+        long due = start + TimeUnit.MILLISECONDS.toNanos(entry.offsetMillis);
+        sleep(TimeUnit.NANOSECONDS.toMillis(due - System.nanoTime()));
+        execute(entry.operation, entry.datasetId, entry.imageId,
+            entry.offsetMillis >= warmupMillis);
+      }
+    });
+    measuredNanos = Math.max(1,
+        System.nanoTime() - start - TimeUnit.MILLISECONDS.toNanos(warmupMillis));
+  }
+
+  private void runThreads(Runnable worker) throws InterruptedException {
+    List<Thread> workers = new ArrayList<>(threads);
+    for (int i = 0; i < threads; i++) {
+      Thread thread = new Thread(worker, "load-" + i);
+      thread.setDaemon(true);
+      workers.add(thread);
+      thread.start();
+    }
+    for (Thread thread : workers) {
+      thread.join();
+    }
+  }
+
+  private Operation nextOperation(double choice) {
+    for (int i = 0; i < mixWeights.length; i++) {
+      if (choice < mixWeights[i]) {
+        return mixOperations[i];
+      }
+    }
+    return mixOperations[mixOperations.length - 1];
+  }
+
+  private void execute(Operation operation, long datasetId, long imageId, boolean measured) {
+    long threadId = Thread.currentThread().getId();
+    long allocatedBefore = THREADS != null ? THREADS.getThreadAllocatedBytes(threadId) : -1;
+    long start = System.nanoTime();
+    Exception failure = null;
+    try {
+      operations.run(operation, datasetId, imageId);
+    } catch (Exception exception) {
+      failure = exception;
+    }
+    long nanos = System.nanoTime() - start;
+    long allocated = THREADS != null
+        ? THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore : -1;
+    if (measured) {
+      stats.get(operation).record(nanos, allocated, failure);
+    }
+  }
+
+  /**
+   * Prints throughput, latency percentiles and allocations of every operation.
+   *
+   * @param out the stream the report is printed to
+   */
+  public void report(PrintStream out) {
+    double seconds = measuredNanos / 1e9;
+    out.printf("%d threads, %.1f s measured%n", threads, seconds);
+    out.printf("%-14s %8s %7s %9s %9s %9s %9s %11s %11s%n", "operation", "count", "errors",
+        "ops/s", "p50 ms", "p99 ms", "p999 ms", "alloc MB/s", "alloc KB/op");
+    for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+      OperationStats operationStats = entry.getValue();
+      long count = operationStats.getCount();
+      if (count == 0) {
+        continue;
+      }
+      long allocated = operationStats.getAllocatedBytes();
+      out.printf("%-14s %8d %7d %9.1f %9.2f %9.2f %9.2f %11s %11s%n",
+          entry.getKey().getLabel(), count, operationStats.getErrors(), count / seconds,
+          operationStats.getPercentile(0.5) / 1e6, operationStats.getPercentile(0.99) / 1e6,
+          operationStats.getPercentile(0.999) / 1e6,
+          allocated < 0 ? "n/a" : String.format("%.2f", allocated / seconds / (1024 * 1024)),
+          allocated < 0 ? "n/a" : String.format("%.1f", allocated / 1024.0 / count));
+    }
+    for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+      Throwable failure = entry.getValue().getFirstFailure();
+      if (failure != null) {
+        out.printf("first failure of %s: %s%n", entry.getKey().getLabel(), describe(failure));
+      }
+    }
+  }
+
+  /**
+   * @return the failure and its root cause, the client wraps most failures
+   */
+  private static String describe(Throwable failure) {
+    Throwable cause = failure;
+    while (cause.getCause() != null && cause.getCause() != cause) {
+      cause = cause.getCause();
+    }
+    return cause == failure ? failure.toString() : failure + ", caused by " + cause;
+  }
+
+  private static void sleep(long millis) {
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return the HotSpot thread MX bean with allocation measurement enabled, null if the JVM does
+   *     not support it
+   */
+  private static com.sun.management.ThreadMXBean allocationBean() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) bean;
+      if (hotSpotBean.isThreadAllocatedMemorySupported()) {
+        hotSpotBean.setThreadAllocatedMemoryEnabled(true);
+        return hotSpotBean;
+      }
+    }
+    return null;
+  }
+}
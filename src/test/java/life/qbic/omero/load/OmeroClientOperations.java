@@ -0,0 +1,81 @@
+package life.qbic.omero.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import life.qbic.omero.BasicOMEROClient;
+
+/**
+ * Runs the operations of the {@link LoadHarness} with a {@link BasicOMEROClient} against an OMERO
+ * server. Only reading operations are used, exports stream the original files of an image into
+ * a discarding stream.
+ *
+ * @since 1.4.0
+ */
+public class OmeroClientOperations implements ClientOperations {
+
+  private final BasicOMEROClient client;
+  private final long[] datasetIds;
+  private final Map<Long, long[]> imageIds = new ConcurrentHashMap<>();
+
+  /**
+   * @param client a client for the server under test
+   * @param datasetIds the datasets the operations work on
+   */
+  public OmeroClientOperations(BasicOMEROClient client, long[] datasetIds) {
+    this.client = client;
+    this.datasetIds = datasetIds.clone();
+  }
+
+  @Override
+  public long[] getDatasetIds() {
+    return datasetIds.clone();
+  }
+
+  @Override
+  public long[] getImageIds(long datasetId) {
+    return imageIds.computeIfAbsent(datasetId,
+        id -> client.getImages(id).keySet().stream().mapToLong(Long::longValue).toArray());
+  }
+
+  @Override
+  public void run(Operation operation, long datasetId, long imageId) throws IOException {
+    switch (operation) {
+      case LIST_PROJECTS:
+        client.loadProjects();
+        break;
+      case LIST_IMAGES:
+        client.getImages(datasetId);
+        break;
+      case THUMBNAIL:
+        try (InputStream thumbnail = client.getThumbnail(datasetId, imageId)) {
+          thumbnail.read();
+        }
+        break;
+      case IMAGE_INFO:
+        client.getImageInfo(datasetId, imageId);
+        break;
+      case EXPORT:
+        client.writeZipBundle(Collections.singletonList(imageId), false, new OutputStream() {
+          @Override
+          public void write(int b) {
+          }
+
+          @Override
+          public void write(byte[] b, int off, int len) {
+          }
+        });
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported operation " + operation);
+    }
+  }
+
+  @Override
+  public void close() {
+    client.disconnect();
+  }
+}
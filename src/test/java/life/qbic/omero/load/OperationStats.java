@@ -0,0 +1,77 @@
+package life.qbic.omero.load;
+
+import java.util.Arrays;
+
+/**
+ * Latencies, failures and allocations recorded for one operation during a load run.
+ *
+ * @since 1.4.0
+ */
+final class OperationStats {
+
+  private long[] latencies = new long[1024];
+  private int count;
+  private long errors;
+  private long allocatedBytes;
+  private boolean allocationMeasured = true;
+  private Throwable firstFailure;
+
+  /**
+   * @param nanos the latency of a completed operation
+   * @param allocated the bytes allocated by the calling thread, negative if not measured
+   * @param failure the failure of the operation, null if it succeeded
+   */
+  synchronized void record(long nanos, long allocated, Throwable failure) {
+    if (count == latencies.length) {
+      latencies = Arrays.copyOf(latencies, count * 2);
+    }
+    latencies[count++] = nanos;
+    if (failure != null) {
+      errors++;
+      if (firstFailure == null) {
+        firstFailure = failure;
+      }
+    }
+    if (allocated < 0) {
+      allocationMeasured = false;
+    } else {
+      allocatedBytes += allocated;
+    }
+  }
+
+  synchronized long getCount() {
+    return count;
+  }
+
+  synchronized long getErrors() {
+    return errors;
+  }
+
+  /**
+   * @return the first failure recorded, null if no operation failed
+   */
+  synchronized Throwable getFirstFailure() {
+    return firstFailure;
+  }
+
+  /**
+   * @return the bytes allocated by all operations, -1 if allocations could not be measured
+   */
+  synchronized long getAllocatedBytes() {
+    return allocationMeasured ? allocatedBytes : -1;
+  }
+
+  /**
+   * @param percentile the percentile between 0 and 1
+   * @return the latency in nanoseconds, 0 if nothing was recorded
+   */
+  synchronized long getPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long[] sorted = Arrays.copyOf(latencies, count);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile * count) - 1;
+    return sorted[Math.max(0, Math.min(count - 1, index))];
+  }
+}